@@ -0,0 +1,120 @@
+package com.example.singletouchview;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * TransformEngine触摸热路径的基准测试. move()模拟拖动控制图标时的一个MOVE事件(rotateZoom + compute),
+ * hitControl()模拟DOWN时判断是否点中控制图标. 手指的轨迹预先算好，测量中不包含三角函数.
+ * 直接运行main()时带GC profiler, gc.alloc.rate.norm应该为0
+ *
+ * @author xiaanming
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransformEngineBenchmark {
+	/**
+	 * 轨迹上的点数，绕中心一圈并逐渐远离中心
+	 */
+	private static final int POINT_COUNT = 256;
+
+	private static final float CENTER = 500;
+
+	private final TransformEngine mEngine = new TransformEngine();
+	private final float[] mXs = new float[POINT_COUNT];
+	private final float[] mYs = new float[POINT_COUNT];
+
+	/**
+	 * hitControl的测试点，一半点中控制图标一半没有
+	 */
+	private final float[] mHitXs = new float[POINT_COUNT];
+	private final float[] mHitYs = new float[POINT_COUNT];
+
+	private int mIndex;
+
+
+	@Setup
+	public void setUp(){
+		mEngine.setBitmapSize(300, 200);
+		mEngine.setFramePadding(8);
+		mEngine.setControlSize(48, 48);
+		mEngine.setControlLocation(TransformEngine.RIGHT_TOP);
+		mEngine.setScaleRange(0.3f, 4.0f);
+		mEngine.setDegreeSnap(45, 3);
+		mEngine.setCenter(CENTER, CENTER);
+		mEngine.compute();
+
+		for(int i = 0; i < POINT_COUNT; i++){
+			double angle = 2 * Math.PI * i / POINT_COUNT;
+			float radius = 150 + 100 * (float) Math.sin(angle * 3);
+			mXs[i] = CENTER + (float) (radius * Math.cos(angle));
+			mYs[i] = CENTER + (float) (radius * Math.sin(angle));
+
+			float offset = (i & 1) == 0 ? 4 : 80;
+			mHitXs[i] = mEngine.getControlX() + offset;
+			mHitYs[i] = mEngine.getControlY() - offset;
+		}
+	}
+
+
+	@Benchmark
+	public float move(){
+		int pre = mIndex;
+		int cur = (pre + 1) & (POINT_COUNT - 1);
+		mIndex = cur;
+
+		mEngine.rotateZoom(mXs[pre], mYs[pre], mXs[cur], mYs[cur]);
+		mEngine.compute();
+		return mEngine.getMatrixValues()[0];
+	}
+
+
+	@Benchmark
+	public boolean hitControl(){
+		int index = mIndex;
+		mIndex = (index + 1) & (POINT_COUNT - 1);
+		return mEngine.hitControl(mHitXs[index], mHitYs[index]);
+	}
+
+
+	/**
+	 * 带GC profiler运行所有基准测试，有参数时按JMH的命令行参数运行
+	 */
+	public static void main(String[] args) throws Exception{
+		if(args.length > 0){
+			org.openjdk.jmh.Main.main(args);
+			return;
+		}
+		run();
+	}
+
+
+	private static void run() throws RunnerException{
+		Options options = new OptionsBuilder()
+				.include(TransformEngineBenchmark.class.getSimpleName())
+				.addProfiler(GCProfiler.class)
+				.build();
+		new Runner(options).run();
+	}
+
+}
@@ -0,0 +1,222 @@
+package com.example.singletouchview;
+
+import static org.junit.Assert.fail;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+
+/**
+ * 变换几何的黄金图片测试. 对 角度 x 缩放比例 x 控制图标位置 x 外边框设置 的组合，用TransformEngine计算出的
+ * Matrix, 四个顶点(外边框的Path)和控制图标的位置把图片，外边框和控制图标画到BufferedImage上，
+ * 与src/test/resources/golden下的图片逐像素比较. 每个控制图标位置和外边框设置生成一张图，行为角度，列为缩放比例.
+ * 修改了几何计算之后用 mvn -B test -Dgolden.update=true 重新生成黄金图片，检查差异之后再提交.
+ * 局限: 这里用Graphics2D按TransformEngine的结果自己画，没有经过FrameDecoration和SingleTouchView.drawSticker,
+ * 只覆盖几何计算. mContentOffsetX/Y, BitmapPyramid的层级选择和FrameDecoration的缓存出错时这个测试仍然会通过.
+ * 绘制耗时不在这里测量(AWT的光栅化不代表Android的帧耗时)，见benchmarks模块的JMH基准测试
+ *
+ * @author xiaanming
+ *
+ */
+public class FrameGoldenImageTest {
+	private static final float[] DEGREES = {0, 30, 90, 135, 217};
+	private static final float[] SCALES = {0.5f, 1.0f, 1.8f};
+	private static final int[] CONTROL_LOCATIONS = {
+		TransformEngine.LEFT_TOP, TransformEngine.RIGHT_TOP,
+		TransformEngine.RIGHT_BOTTOM, TransformEngine.LEFT_BOTTOM
+	};
+
+	/**
+	 * 外边框设置: padding, 线宽, 颜色
+	 */
+	private static final int[][] FRAMES = {
+		{8, 2, 0xFFFFFFFF},
+		{16, 5, 0xFF0022FF},
+	};
+
+	private static final int BITMAP_WIDTH = 80;
+	private static final int BITMAP_HEIGHT = 60;
+	private static final int CONTROL_SIZE = 24;
+	private static final int CELL_SIZE = 280;
+	private static final int BACKGROUND = 0xFF202020;
+	private static final int CONTROL_COLOR = 0xFFFF8800;
+
+	/**
+	 * 不同JDK的光栅化可能有个别像素的差别，每一格允许不一致的像素数. 控制图标偏移1像素就有CONTROL_SIZE个像素不同
+	 */
+	private static final int MAX_MISMATCH_PER_CELL = 8;
+
+	private static final File GOLDEN_DIR = new File("src/test/resources/golden");
+	private static final File ACTUAL_DIR = new File("target/golden-actual");
+
+	private final BufferedImage mSource = createSource();
+	private final int[] mControl = new int[4];
+
+
+	@Test
+	public void geometryMatchesGoldens() throws IOException{
+		boolean update = Boolean.getBoolean("golden.update");
+		StringBuilder failures = new StringBuilder();
+
+		for(int[] frame : FRAMES){
+			for(int location : CONTROL_LOCATIONS){
+				String name = "frame" + frame[0] + "_" + frame[1] + "_location" + location + ".png";
+				BufferedImage actual = renderSheet(frame, location);
+				File golden = new File(GOLDEN_DIR, name);
+
+				if(update){
+					GOLDEN_DIR.mkdirs();
+					ImageIO.write(actual, "png", golden);
+					continue;
+				}
+				if(!golden.exists()){
+					failures.append(name).append(": missing golden\n");
+					writeActual(name, actual);
+					continue;
+				}
+				String mismatch = findMismatch(ImageIO.read(golden), actual);
+				if(mismatch != null){
+					failures.append(name).append(": ").append(mismatch).append('\n');
+					writeActual(name, actual);
+				}
+			}
+		}
+
+		if(failures.length() > 0){
+			fail("Golden images differ (actual images in " + ACTUAL_DIR + "):\n" + failures);
+		}
+	}
+
+
+	/**
+	 * 一个控制图标位置和外边框设置的所有组合，行为角度，列为缩放比例
+	 */
+	private BufferedImage renderSheet(int[] frame, int location){
+		BufferedImage sheet = new BufferedImage(CELL_SIZE * SCALES.length, CELL_SIZE * DEGREES.length,
+				BufferedImage.TYPE_INT_ARGB);
+		TransformEngine engine = createEngine();
+
+		Graphics2D g = sheet.createGraphics();
+		g.setColor(new Color(BACKGROUND, true));
+		g.fillRect(0, 0, sheet.getWidth(), sheet.getHeight());
+		for(int row = 0; row < DEGREES.length; row++){
+			for(int column = 0; column < SCALES.length; column++){
+				Graphics2D cell = (Graphics2D) g.create(column * CELL_SIZE, row * CELL_SIZE, CELL_SIZE, CELL_SIZE);
+				configure(engine, frame, location, DEGREES[row], SCALES[column]);
+				drawCell(cell, engine, frame);
+				cell.dispose();
+			}
+		}
+		g.dispose();
+		return sheet;
+	}
+
+
+	private static TransformEngine createEngine(){
+		TransformEngine engine = new TransformEngine();
+		engine.setBitmapSize(BITMAP_WIDTH, BITMAP_HEIGHT);
+		engine.setControlSize(CONTROL_SIZE, CONTROL_SIZE);
+		engine.setScaleRange(0.1f, 10f);
+		return engine;
+	}
+
+
+	private static void configure(TransformEngine engine, int[] frame, int location, float degree, float scale){
+		engine.setFramePadding(frame[0]);
+		engine.setControlLocation(location);
+		engine.setDegree(degree);
+		engine.setScale(scale);
+		engine.compute();
+	}
+
+
+	/**
+	 * 按SingleTouchView.onDraw的顺序重新实现: 用Matrix画图片，再画外边框和控制图标, View居中放在格子里
+	 */
+	private void drawCell(Graphics2D g, TransformEngine engine, int[] frame){
+		g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
+		g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+		g.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
+		g.translate((CELL_SIZE - engine.getLayoutWidth()) / 2, (CELL_SIZE - engine.getLayoutHeight()) / 2);
+
+		float[] m = engine.getMatrixValues();
+		g.drawImage(mSource, new AffineTransform(m[0], m[3], m[1], m[4], m[2], m[5]), null);
+
+		float[] corners = engine.getCorners();
+		Path2D.Float path = new Path2D.Float();
+		path.moveTo(corners[0], corners[1]);
+		path.lineTo(corners[2], corners[3]);
+		path.lineTo(corners[4], corners[5]);
+		path.lineTo(corners[6], corners[7]);
+		path.closePath();
+		g.setColor(new Color(frame[2], true));
+		g.setStroke(new BasicStroke(frame[1], BasicStroke.CAP_BUTT, BasicStroke.JOIN_MITER, 4));
+		g.draw(path);
+
+		engine.getControlBounds(mControl);
+		g.setColor(new Color(CONTROL_COLOR, true));
+		g.fillRect(mControl[0], mControl[1], mControl[2] - mControl[0], mControl[3] - mControl[1]);
+	}
+
+
+	/**
+	 * 4个颜色象限加上对角线，方向和翻转错误都能从图片上看出来
+	 */
+	private static BufferedImage createSource(){
+		BufferedImage source = new BufferedImage(BITMAP_WIDTH, BITMAP_HEIGHT, BufferedImage.TYPE_INT_ARGB);
+		int[] colors = {0xFFE53935, 0xFF43A047, 0xFF1E88E5, 0xFFFDD835};
+		for(int y = 0; y < BITMAP_HEIGHT; y++){
+			for(int x = 0; x < BITMAP_WIDTH; x++){
+				int quadrant = (x < BITMAP_WIDTH / 2 ? 0 : 1) + (y < BITMAP_HEIGHT / 2 ? 0 : 2);
+				boolean diagonal = x * BITMAP_HEIGHT / BITMAP_WIDTH == y;
+				source.setRGB(x, y, diagonal ? 0xFF000000 : colors[quadrant]);
+			}
+		}
+		return source;
+	}
+
+
+	/**
+	 * 逐格比较
+	 * @return 第一个超出容差的格子，都一致时返回null
+	 */
+	private static String findMismatch(BufferedImage expected, BufferedImage actual){
+		if(expected.getWidth() != actual.getWidth() || expected.getHeight() != actual.getHeight()){
+			return "size " + expected.getWidth() + "x" + expected.getHeight()
+					+ " != " + actual.getWidth() + "x" + actual.getHeight();
+		}
+		for(int row = 0; row < DEGREES.length; row++){
+			for(int column = 0; column < SCALES.length; column++){
+				int mismatched = 0;
+				for(int y = row * CELL_SIZE; y < (row + 1) * CELL_SIZE; y++){
+					for(int x = column * CELL_SIZE; x < (column + 1) * CELL_SIZE; x++){
+						if(expected.getRGB(x, y) != actual.getRGB(x, y)){
+							mismatched++;
+						}
+					}
+				}
+				if(mismatched > MAX_MISMATCH_PER_CELL){
+					return mismatched + " pixels differ at degree " + DEGREES[row] + ", scale " + SCALES[column];
+				}
+			}
+		}
+		return null;
+	}
+
+
+	private static void writeActual(String name, BufferedImage image) throws IOException{
+		ACTUAL_DIR.mkdirs();
+		ImageIO.write(image, "png", new File(ACTUAL_DIR, name));
+	}
+
+}
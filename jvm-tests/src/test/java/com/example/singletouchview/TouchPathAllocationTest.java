@@ -0,0 +1,171 @@
+package com.example.singletouchview;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * 触摸热路径的零分配测试. 把 DOWN, MOVE * N, UP 的手势交给TransformEngine和TransformFling,
+ * 预热之后再回放一遍，当前线程分配的字节数必须为0
+ *
+ * @author xiaanming
+ *
+ */
+public class TouchPathAllocationTest {
+	private static final int MOVE_COUNT = 200;
+	private static final int WARM_UP_ROUNDS = 50;
+	private static final long FRAME_MILLIS = 16;
+
+	private com.sun.management.ThreadMXBean mThreadBean;
+	private long mThreadId;
+
+	private TransformEngine mEngine;
+	private TransformFling mFling;
+	private TransformHistory mHistory;
+	private final float[] mPoint = new float[2];
+
+
+	@Before
+	public void setUp(){
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+		mThreadBean = (com.sun.management.ThreadMXBean) bean;
+		assumeTrue(mThreadBean.isThreadAllocatedMemorySupported());
+		mThreadBean.setThreadAllocatedMemoryEnabled(true);
+		mThreadId = Thread.currentThread().getId();
+
+		mEngine = new TransformEngine();
+		mEngine.setBitmapSize(300, 200);
+		mEngine.setFramePadding(8);
+		mEngine.setControlSize(48, 48);
+		mEngine.setControlLocation(TransformEngine.RIGHT_TOP);
+		mEngine.setScaleRange(0.3f, 4.0f);
+		mEngine.setDegreeSnap(45, 3);
+		mFling = new TransformFling();
+		mHistory = new TransformHistory(32);
+	}
+
+
+	@Test
+	public void rotateZoomGestureDoesNotAllocate(){
+		for(int i = 0; i < WARM_UP_ROUNDS; i++){
+			replayRotateZoom();
+		}
+		assertEquals(0, measure(true));
+	}
+
+
+	@Test
+	public void dragGestureDoesNotAllocate(){
+		for(int i = 0; i < WARM_UP_ROUNDS; i++){
+			replayDrag();
+		}
+		assertEquals(0, measure(false));
+	}
+
+
+	/**
+	 * 回放一遍手势，返回分配的字节数(减去读取计数本身的开销)
+	 */
+	private long measure(boolean rotateZoom){
+		long overhead = allocatedBytes();
+		overhead = allocatedBytes() - overhead;
+
+		long start = allocatedBytes();
+		if(rotateZoom){
+			replayRotateZoom();
+		}else{
+			replayDrag();
+		}
+		long allocated = allocatedBytes() - start - overhead;
+		assertTrue("negative allocation " + allocated, allocated >= 0);
+		return allocated;
+	}
+
+
+	private long allocatedBytes(){
+		return mThreadBean.getThreadAllocatedBytes(mThreadId);
+	}
+
+
+	private void reset(){
+		mEngine.setCenter(500, 500);
+		mEngine.setDegree(0);
+		mEngine.setScale(1);
+		mEngine.compute();
+		mHistory.clear();
+	}
+
+
+	/**
+	 * 按住控制图标绕中心转一圈并逐渐放大
+	 */
+	private void replayRotateZoom(){
+		reset();
+		long time = 0;
+
+		//DOWN
+		float preX = mEngine.getCenterX() + 180;
+		float preY = mEngine.getCenterY();
+		mEngine.hitControl(mEngine.getControlX(), mEngine.getControlY());
+		mEngine.mapToBitmap(preX, preY, mPoint);
+		mFling.resetSamples();
+		mFling.addSample(time, mEngine);
+
+		//MOVE * N
+		for(int i = 1; i <= MOVE_COUNT; i++){
+			time += 8;
+			double angle = 2 * Math.PI * i / MOVE_COUNT;
+			float radius = 180 + i;
+			float curX = mEngine.getCenterX() + (float) (radius * Math.cos(angle));
+			float curY = mEngine.getCenterY() + (float) (radius * Math.sin(angle));
+			mEngine.rotateZoom(preX, preY, curX, curY);
+			mEngine.compute();
+			mFling.addSample(time, mEngine);
+			preX = curX;
+			preY = curY;
+		}
+
+		//UP
+		finishGesture(time);
+	}
+
+
+	/**
+	 * 快速拖动之后抬起，惯性滑动到停止
+	 */
+	private void replayDrag(){
+		reset();
+		long time = 0;
+
+		mEngine.mapToBitmap(500, 500, mPoint);
+		mFling.resetSamples();
+		mFling.addSample(time, mEngine);
+
+		for(int i = 1; i <= MOVE_COUNT; i++){
+			time += 8;
+			mEngine.drag(6, 3);
+			mFling.addSample(time, mEngine);
+		}
+		mEngine.compute();
+
+		finishGesture(time);
+	}
+
+
+	private void finishGesture(long time){
+		if(mFling.start(time)){
+			long frameTime = time;
+			while(mFling.step(mEngine, frameTime += FRAME_MILLIS)){
+				mEngine.compute();
+			}
+		}
+		mHistory.push(mEngine);
+	}
+
+}
@@ -0,0 +1,96 @@
+package com.example.singletouchview;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.widget.FrameLayout;
+
+/**
+ * 显示贴图对齐线的父布局. 放在其中的SingleTouchView共用它的AlignmentIndex, 拖动吸附时把对齐线交给布局，
+ * 布局在所有子View之上画出贯穿整个布局的对齐线，不受贴图自身View大小的限制
+ *
+ * @author xiaanming
+ *
+ */
+public class AlignmentGuideLayout extends FrameLayout {
+	public static final int DEFAULT_GUIDE_COLOR = 0xFFFF4081;
+
+	/**
+	 * 子View共用的对齐线索引
+	 */
+	private final AlignmentIndex mAlignmentIndex = new AlignmentIndex();
+
+	/**
+	 * 当前显示的对齐线(布局坐标)，没有时为NaN
+	 */
+	private float mGuideX = Float.NaN, mGuideY = Float.NaN;
+	private Paint mGuidePaint;
+
+
+	public AlignmentGuideLayout(Context context) {
+		this(context, null);
+	}
+
+	public AlignmentGuideLayout(Context context, AttributeSet attrs) {
+		this(context, attrs, 0);
+	}
+
+	public AlignmentGuideLayout(Context context, AttributeSet attrs, int defStyle) {
+		super(context, attrs, defStyle);
+		mGuidePaint = new Paint();
+		mGuidePaint.setColor(DEFAULT_GUIDE_COLOR);
+		mGuidePaint.setStrokeWidth(Math.max(1, context.getResources().getDisplayMetrics().density));
+	}
+
+
+	@Override
+	protected void dispatchDraw(Canvas canvas) {
+		super.dispatchDraw(canvas);
+
+		//对齐线画在所有子View之上，横跨整个布局
+		if(!Float.isNaN(mGuideX)){
+			canvas.drawLine(mGuideX, 0, mGuideX, getHeight(), mGuidePaint);
+		}
+		if(!Float.isNaN(mGuideY)){
+			canvas.drawLine(0, mGuideY, getWidth(), mGuideY, mGuidePaint);
+		}
+	}
+
+
+	/**
+	 * 显示对齐线
+	 * @param x 竖直对齐线的x坐标，NaN表示没有
+	 * @param y 水平对齐线的y坐标，NaN表示没有
+	 */
+	public void setGuides(float x, float y) {
+		if(Float.compare(mGuideX, x) == 0 && Float.compare(mGuideY, y) == 0) return;
+		mGuideX = x;
+		mGuideY = y;
+		invalidate();
+	}
+
+	/**
+	 * 隐藏对齐线
+	 */
+	public void clearGuides() {
+		setGuides(Float.NaN, Float.NaN);
+	}
+
+	/**
+	 * 设置对齐线的颜色
+	 * @param color
+	 */
+	public void setGuideColor(int color) {
+		mGuidePaint.setColor(color);
+		invalidate();
+	}
+
+	/**
+	 * 子View共用的对齐线索引，SingleTouchView添加到布局中时如果没有设置索引则自动使用它
+	 */
+	public AlignmentIndex getAlignmentIndex() {
+		return mAlignmentIndex;
+	}
+
+}
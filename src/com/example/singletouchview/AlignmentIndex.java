@@ -0,0 +1,216 @@
+package com.example.singletouchview;
+
+/**
+ * 多个贴图的对齐线索引，拖动时查找附近可以对齐的其他贴图. 每个贴图在x方向保存左边，中心，右边，
+ * y方向保存上边，中心，下边，两个方向各是一个按坐标排序的数组，贴图移动时只删除和插入它自己的值，
+ * 查找时二分定位到范围内的值，不需要遍历所有贴图. 旋转的贴图保存的是四个顶点的外接矩形(与坐标轴平行). 不依赖Android API
+ *
+ * @author xiaanming
+ *
+ */
+public class AlignmentIndex {
+	/**
+	 * 坐标方向
+	 */
+	public static final int AXIS_X = 0;
+	public static final int AXIS_Y = 1;
+
+	/**
+	 * 每个贴图在一个方向上的对齐线数: 两条边和中心
+	 */
+	private static final int LINES_PER_ENTRY = 3;
+
+	private static final int INITIAL_CAPACITY = 16 * LINES_PER_ENTRY;
+
+	/**
+	 * 保存在索引中的一个贴图，通过它更新或者删除
+	 */
+	public static final class Entry {
+		/**
+		 * 两个方向的对齐线，与索引中的值保持一致
+		 */
+		private final float[][] lines = new float[2][LINES_PER_ENTRY];
+		private boolean indexed;
+
+		private Entry() {
+		}
+	}
+
+	/**
+	 * 两个方向按坐标排序的对齐线，以及它们所属的贴图
+	 */
+	private final float[][] mValues = new float[2][INITIAL_CAPACITY];
+	private final Entry[][] mOwners = new Entry[2][INITIAL_CAPACITY];
+	private final int[] mSize = new int[2];
+
+
+	/**
+	 * 插入一个贴图的外接矩形
+	 * @return 用于之后更新或者删除的Entry
+	 */
+	public Entry insert(float left, float top, float right, float bottom){
+		Entry entry = new Entry();
+		setLines(entry, left, top, right, bottom);
+		insertLines(entry);
+		return entry;
+	}
+
+
+	/**
+	 * 贴图的外接矩形发生变化
+	 */
+	public void update(Entry entry, float left, float top, float right, float bottom){
+		if(entry.indexed){
+			float[] x = entry.lines[AXIS_X];
+			float[] y = entry.lines[AXIS_Y];
+			//没有变化时不需要移动
+			if(x[0] == left && x[2] == right && y[0] == top && y[2] == bottom) return;
+			removeLines(entry);
+		}
+		setLines(entry, left, top, right, bottom);
+		insertLines(entry);
+	}
+
+
+	/**
+	 * 删除一个贴图
+	 */
+	public void remove(Entry entry){
+		if(entry.indexed){
+			removeLines(entry);
+		}
+	}
+
+
+	/**
+	 * 在value附近tolerance范围内查找最近的对齐线
+	 * @param axis AXIS_X或者AXIS_Y
+	 * @param value
+	 * @param tolerance
+	 * @param exclude 不参与查找的贴图(正在拖动的贴图自己), 可以为null
+	 * @return 最近的对齐线，没有则返回Float.NaN
+	 */
+	public float findNearest(int axis, float value, float tolerance, Entry exclude){
+		float[] values = mValues[axis];
+		Entry[] owners = mOwners[axis];
+		int size = mSize[axis];
+
+		float nearest = Float.NaN;
+		float nearestDistance = tolerance;
+		for(int i = lowerBound(values, size, value - tolerance); i < size && values[i] <= value + tolerance; i++){
+			if(owners[i] == exclude) continue;
+			float distance = Math.abs(values[i] - value);
+			if(distance <= nearestDistance){
+				nearest = values[i];
+				nearestDistance = distance;
+			}
+		}
+		return nearest;
+	}
+
+
+	/**
+	 * 索引中的贴图数
+	 */
+	public int size(){
+		return mSize[AXIS_X] / LINES_PER_ENTRY;
+	}
+
+
+	private static void setLines(Entry entry, float left, float top, float right, float bottom){
+		float[] x = entry.lines[AXIS_X];
+		x[0] = left;
+		x[1] = (left + right) / 2;
+		x[2] = right;
+		float[] y = entry.lines[AXIS_Y];
+		y[0] = top;
+		y[1] = (top + bottom) / 2;
+		y[2] = bottom;
+	}
+
+
+	private void insertLines(Entry entry){
+		for(int axis = AXIS_X; axis <= AXIS_Y; axis++){
+			ensureCapacity(axis, mSize[axis] + LINES_PER_ENTRY);
+			float[] lines = entry.lines[axis];
+			for(int i = 0; i < LINES_PER_ENTRY; i++){
+				insertValue(axis, lines[i], entry);
+			}
+		}
+		entry.indexed = true;
+	}
+
+
+	private void removeLines(Entry entry){
+		for(int axis = AXIS_X; axis <= AXIS_Y; axis++){
+			float[] lines = entry.lines[axis];
+			for(int i = 0; i < LINES_PER_ENTRY; i++){
+				removeValue(axis, lines[i], entry);
+			}
+		}
+		entry.indexed = false;
+	}
+
+
+	private void insertValue(int axis, float value, Entry owner){
+		float[] values = mValues[axis];
+		Entry[] owners = mOwners[axis];
+		int size = mSize[axis];
+
+		int index = lowerBound(values, size, value);
+		System.arraycopy(values, index, values, index + 1, size - index);
+		System.arraycopy(owners, index, owners, index + 1, size - index);
+		values[index] = value;
+		owners[index] = owner;
+		mSize[axis] = size + 1;
+	}
+
+
+	private void removeValue(int axis, float value, Entry owner){
+		float[] values = mValues[axis];
+		Entry[] owners = mOwners[axis];
+		int size = mSize[axis];
+
+		//相同的值可能属于多个贴图
+		for(int index = lowerBound(values, size, value); index < size && values[index] == value; index++){
+			if(owners[index] == owner){
+				System.arraycopy(values, index + 1, values, index, size - index - 1);
+				System.arraycopy(owners, index + 1, owners, index, size - index - 1);
+				owners[size - 1] = null;
+				mSize[axis] = size - 1;
+				return;
+			}
+		}
+	}
+
+
+	/**
+	 * 第一个不小于value的位置
+	 */
+	private static int lowerBound(float[] values, int size, float value){
+		int low = 0;
+		int high = size;
+		while(low < high){
+			int middle = (low + high) >>> 1;
+			if(values[middle] < value){
+				low = middle + 1;
+			}else{
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+
+	private void ensureCapacity(int axis, int capacity){
+		if(capacity <= mValues[axis].length) return;
+		int newCapacity = Math.max(capacity, mValues[axis].length * 2);
+		float[] values = new float[newCapacity];
+		Entry[] owners = new Entry[newCapacity];
+		System.arraycopy(mValues[axis], 0, values, 0, mSize[axis]);
+		System.arraycopy(mOwners[axis], 0, owners, 0, mSize[axis]);
+		mValues[axis] = values;
+		mOwners[axis] = owners;
+	}
+
+}
@@ -0,0 +1,119 @@
+package com.example.singletouchview;
+
+import java.util.WeakHashMap;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+/**
+ * 图片缩小之后的1位透明度掩码，每个格子只记录是否不透明，用来判断点击是否落在图片的透明区域.
+ * 每张图片只在第一次使用时按格子中心采样生成一次，不读取完整分辨率的像素，相同的Bitmap共用同一个掩码
+ *
+ * @author xiaanming
+ *
+ */
+public class AlphaMask {
+	/**
+	 * 掩码较长一边的最大格子数
+	 */
+	public static final int MAX_SIZE = 64;
+
+	/**
+	 * 透明度大于该值认为不透明
+	 */
+	public static final int ALPHA_THRESHOLD = 0x10;
+
+	private static final WeakHashMap<Bitmap, AlphaMask> sMasks = new WeakHashMap<Bitmap, AlphaMask>();
+
+	private final int mBitmapWidth, mBitmapHeight;
+	private final int mWidth, mHeight;
+
+	/**
+	 * 每个格子一位，按行排列
+	 */
+	private final int[] mBits;
+
+
+	private AlphaMask(int bitmapWidth, int bitmapHeight, int width, int height) {
+		this.mBitmapWidth = bitmapWidth;
+		this.mBitmapHeight = bitmapHeight;
+		this.mWidth = width;
+		this.mHeight = height;
+		this.mBits = new int[(width * height + 31) >> 5];
+	}
+
+
+	/**
+	 * 获取图片的掩码，第一次获取时生成
+	 * @param bitmap
+	 * @return
+	 */
+	public static AlphaMask obtain(Bitmap bitmap){
+		synchronized (sMasks) {
+			AlphaMask mask = sMasks.get(bitmap);
+			if(mask == null){
+				mask = build(bitmap);
+				sMasks.put(bitmap, mask);
+			}
+			return mask;
+		}
+	}
+
+
+	private static AlphaMask build(Bitmap bitmap){
+		int bitmapWidth = bitmap.getWidth();
+		int bitmapHeight = bitmap.getHeight();
+
+		//没有透明通道的图片只需要一个不透明的格子
+		if(!bitmap.hasAlpha()){
+			AlphaMask mask = new AlphaMask(bitmapWidth, bitmapHeight, 1, 1);
+			mask.mBits[0] = 1;
+			return mask;
+		}
+
+		float cellSize = Math.max(1f, (float) Math.max(bitmapWidth, bitmapHeight) / MAX_SIZE);
+		int width = Math.max(1, (int) Math.ceil(bitmapWidth / cellSize));
+		int height = Math.max(1, (int) Math.ceil(bitmapHeight / cellSize));
+
+		AlphaMask mask = new AlphaMask(bitmapWidth, bitmapHeight, width, height);
+		for(int y = 0; y < height; y++){
+			int pixelY = Math.min(bitmapHeight - 1, (int) ((y + 0.5f) * bitmapHeight / height));
+			for(int x = 0; x < width; x++){
+				int pixelX = Math.min(bitmapWidth - 1, (int) ((x + 0.5f) * bitmapWidth / width));
+				if(Color.alpha(bitmap.getPixel(pixelX, pixelY)) > ALPHA_THRESHOLD){
+					int index = y * width + x;
+					mask.mBits[index >> 5] |= 1 << (index & 31);
+				}
+			}
+		}
+		return mask;
+	}
+
+
+	/**
+	 * 图片坐标(x, y)是否落在不透明的区域，图片范围之外返回false
+	 * @param x 未缩放旋转的图片坐标
+	 * @param y
+	 * @return
+	 */
+	public boolean isOpaque(float x, float y){
+		if(x < 0 || y < 0 || x >= mBitmapWidth || y >= mBitmapHeight) return false;
+
+		int cellX = (int) (x * mWidth / mBitmapWidth);
+		int cellY = (int) (y * mHeight / mBitmapHeight);
+		int index = cellY * mWidth + cellX;
+		return (mBits[index >> 5] & (1 << (index & 31))) != 0;
+	}
+
+
+	/**
+	 * 回收图片之前移除对应的掩码，不调用也会在Bitmap被回收之后自动移除
+	 * @param bitmap
+	 */
+	public static void remove(Bitmap bitmap){
+		synchronized (sMasks) {
+			sMasks.remove(bitmap);
+		}
+	}
+
+}
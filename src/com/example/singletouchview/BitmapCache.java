@@ -0,0 +1,158 @@
+package com.example.singletouchview;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.graphics.drawable.Drawable;
+import android.support.v4.util.LruCache;
+
+/**
+ * 进程内共享的Bitmap缓存，缓存由Drawable转换而来的Bitmap，相同的贴图共用同一份像素,
+ * 以字节数作为大小，超过上限时淘汰最近最少使用的Bitmap. 缓存中的Bitmap是共享的，不能被recycle.
+ * 图片的缩小版本(BitmapPyramid的各级)与原图使用同一个key加上级别保存，同样计入上限
+ *
+ * @author xiaanming
+ *
+ */
+public class BitmapCache {
+	private static BitmapCache sInstance;
+
+	private final LruCache<Key, Bitmap> mCache;
+
+
+	/**
+	 * 缓存的key, 由图片来源(资源id或者Drawable), 目标大小，像素格式和缩小的级别组成.
+	 * 不同View的opaqueConfig可能不同，同一个来源不能共用不同格式的Bitmap
+	 */
+	private static final class Key {
+		private final Object source;
+		private final int width;
+		private final int height;
+		private final Config config;
+
+		/**
+		 * 0是原图，之后每一级宽高都是上一级的一半
+		 */
+		private final int level;
+
+		private Key(Object source, int width, int height, Config config, int level) {
+			this.source = source;
+			this.width = width;
+			this.height = height;
+			this.config = config;
+			this.level = level;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if(this == o) return true;
+			if(!(o instanceof Key)) return false;
+			Key other = (Key) o;
+			return width == other.width && height == other.height && config == other.config
+					&& level == other.level && source.equals(other.source);
+		}
+
+		@Override
+		public int hashCode() {
+			return (((source.hashCode() * 31 + width) * 31 + height) * 31 + config.hashCode()) * 31 + level;
+		}
+	}
+
+
+	public static synchronized BitmapCache getInstance(){
+		if(sInstance == null){
+			sInstance = new BitmapCache(MemoryBudget.getBitmapCacheBytes());
+		}
+		return sInstance;
+	}
+
+
+	/**
+	 * @param maxBytes 缓存的最大字节数
+	 */
+	public BitmapCache(int maxBytes) {
+		mCache = new LruCache<Key, Bitmap>(maxBytes){
+			@Override
+			protected int sizeOf(Key key, Bitmap value) {
+				return value.getRowBytes() * value.getHeight();
+			}
+		};
+	}
+
+
+	/**
+	 * 获取缓存的Bitmap
+	 * @param source 资源id或者Drawable的标识, 参考{@link #keyOf(int, Drawable)}
+	 * @param width
+	 * @param height
+	 * @param config Bitmap的像素格式
+	 * @return 没有缓存则返回null
+	 */
+	public Bitmap get(Object source, int width, int height, Config config){
+		return getLevel(source, width, height, config, 0);
+	}
+
+
+	public void put(Object source, int width, int height, Config config, Bitmap bitmap){
+		putLevel(source, width, height, config, 0, bitmap);
+	}
+
+
+	/**
+	 * 获取缓存的缩小版本
+	 * @param source 原图的来源
+	 * @param width 原图的宽
+	 * @param height 原图的高
+	 * @param config 原图的像素格式
+	 * @param level 缩小的级别
+	 * @return 没有缓存则返回null
+	 */
+	public Bitmap getLevel(Object source, int width, int height, Config config, int level){
+		return mCache.get(new Key(source, width, height, config, level));
+	}
+
+
+	public void putLevel(Object source, int width, int height, Config config, int level, Bitmap bitmap){
+		mCache.put(new Key(source, width, height, config, level), bitmap);
+	}
+
+
+	/**
+	 * 图片来源的标识，有资源id使用资源id，否则使用Drawable的ConstantState(同一资源的多个Drawable共用), 最后才使用Drawable本身
+	 * @param resId 没有资源id传0
+	 * @param drawable
+	 * @return
+	 */
+	public static Object keyOf(int resId, Drawable drawable){
+		if(resId != 0){
+			return Integer.valueOf(resId);
+		}
+		Drawable.ConstantState state = drawable.getConstantState();
+		return state != null ? state : drawable;
+	}
+
+
+	public void clear(){
+		mCache.evictAll();
+	}
+
+	public int size(){
+		return mCache.size();
+	}
+
+	public int maxSize(){
+		return mCache.maxSize();
+	}
+
+	public int hitCount(){
+		return mCache.hitCount();
+	}
+
+	public int missCount(){
+		return mCache.missCount();
+	}
+
+	public int evictionCount(){
+		return mCache.evictionCount();
+	}
+
+}
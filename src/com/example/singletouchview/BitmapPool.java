@@ -0,0 +1,109 @@
+package com.example.singletouchview;
+
+import java.util.ArrayList;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.os.Build;
+
+/**
+ * 不再显示的可变Bitmap的复用池，解码新图片时通过BitmapFactory.Options.inBitmap直接解码到已有的内存中，
+ * 频繁切换贴图时减少内存分配和GC. 超过上限时回收最早放入的Bitmap.
+ * API 11以下不支持inBitmap，放入的Bitmap直接回收; API 18及以下inBitmap要求宽高和Config完全一致
+ *
+ * @author xiaanming
+ *
+ */
+public class BitmapPool {
+	private static BitmapPool sInstance;
+
+	/**
+	 * 按放入的顺序保存，最早放入的在最前面
+	 */
+	private final ArrayList<Bitmap> mBitmaps = new ArrayList<Bitmap>();
+
+	private final long mMaxBytes;
+	private long mBytes;
+
+
+	public static synchronized BitmapPool getInstance(){
+		if(sInstance == null){
+			sInstance = new BitmapPool(MemoryBudget.getBitmapPoolBytes());
+		}
+		return sInstance;
+	}
+
+
+	/**
+	 * @param maxBytes 池中Bitmap的最大字节数
+	 */
+	public BitmapPool(long maxBytes) {
+		this.mMaxBytes = maxBytes;
+	}
+
+
+	/**
+	 * 取出一个宽高和Config完全一致的Bitmap
+	 * @param width
+	 * @param height
+	 * @param config
+	 * @return 没有合适的返回null
+	 */
+	public synchronized Bitmap get(int width, int height, Config config){
+		//从最近放入的开始找
+		for(int i = mBitmaps.size() - 1; i >= 0; i--){
+			Bitmap bitmap = mBitmaps.get(i);
+			if(bitmap.getWidth() == width && bitmap.getHeight() == height && bitmap.getConfig() == config){
+				mBitmaps.remove(i);
+				mBytes -= sizeOf(bitmap);
+				return bitmap;
+			}
+		}
+		return null;
+	}
+
+
+	/**
+	 * 放入不再使用的Bitmap, 放入之后调用者不能再使用它
+	 * @param bitmap 必须是可变的，不可变的直接回收
+	 */
+	public synchronized void put(Bitmap bitmap){
+		if(bitmap == null || bitmap.isRecycled()) return;
+
+		long size = sizeOf(bitmap);
+		if(Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB || !bitmap.isMutable() || size > mMaxBytes){
+			bitmap.recycle();
+			return;
+		}
+
+		mBitmaps.add(bitmap);
+		mBytes += size;
+		while(mBytes > mMaxBytes && !mBitmaps.isEmpty()){
+			Bitmap eldest = mBitmaps.remove(0);
+			mBytes -= sizeOf(eldest);
+			eldest.recycle();
+		}
+	}
+
+
+	/**
+	 * 回收池中所有的Bitmap
+	 */
+	public synchronized void clear(){
+		for(int i = 0; i < mBitmaps.size(); i++){
+			mBitmaps.get(i).recycle();
+		}
+		mBitmaps.clear();
+		mBytes = 0;
+	}
+
+	public synchronized long size(){
+		return mBytes;
+	}
+
+
+	private static long sizeOf(Bitmap bitmap){
+		return (long) bitmap.getRowBytes() * bitmap.getHeight();
+	}
+
+}
@@ -0,0 +1,204 @@
+package com.example.singletouchview;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.os.Build;
+
+/**
+ * 图片的多级缩小版本(mipmap), 第0级是原图，之后每一级宽高都是上一级的一半，
+ * 画图时选取刚好能覆盖当前缩放比例的最小一级，避免每一帧都从原图缩小.
+ * 多个View共用的原图生成时传入cacheKey, 各级与原图使用同一个key放在BitmapCache中，相同的贴图只生成一份
+ *
+ * @author xiaanming
+ *
+ */
+public class BitmapPyramid {
+	/**
+	 * 最小一级的宽或者高不会小于该值
+	 */
+	private static final int MIN_LEVEL_SIZE = 16;
+
+	/**
+	 * 原图的宽高都不超过该值时不生成缩小版本，从原图缩小的开销已经很小
+	 */
+	private static final int MIN_SOURCE_SIZE = 256;
+
+	private static final Bitmap[] EMPTY = new Bitmap[0];
+
+	/**
+	 * 每一级的图片，第0级是原图
+	 */
+	private Bitmap[] mLevels = EMPTY;
+
+	/**
+	 * 不为null时缩小版本从池中获取，回收时放回池中
+	 */
+	private BitmapPool mPool;
+
+	/**
+	 * 缩小版本来自BitmapCache, 被多个View共用，回收时只释放引用
+	 */
+	private boolean mShared;
+
+	/**
+	 * 生成各级时复用，只在build()中使用
+	 */
+	private final Canvas mCanvas = new Canvas();
+	private final Rect mDst = new Rect();
+	private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+
+	public void setBitmapPool(BitmapPool pool){
+		mPool = pool;
+	}
+
+
+	/**
+	 * 根据原图生成该View私有的缩小版本，之前生成的缩小版本会被回收
+	 * @param source 原图
+	 * @param minScale 会用到的最小缩放比例，缩小到刚好能覆盖该比例为止
+	 */
+	public void build(Bitmap source, float minScale){
+		build(source, minScale, null);
+	}
+
+
+	/**
+	 * 根据原图生成缩小版本，之前生成的缩小版本会被回收
+	 * @param source 原图
+	 * @param minScale 会用到的最小缩放比例，缩小到刚好能覆盖该比例为止
+	 * @param cacheKey 原图在BitmapCache中的来源标识，不为null时各级从BitmapCache中获取或者生成之后放入，
+	 * 不使用复用池
+	 */
+	public void build(Bitmap source, float minScale, Object cacheKey){
+		recycle();
+		if(source == null) return;
+		if(source.getWidth() <= MIN_SOURCE_SIZE && source.getHeight() <= MIN_SOURCE_SIZE){
+			mLevels = new Bitmap[]{source};
+			return;
+		}
+
+		int count = 1;
+		float levelScale = 1f;
+		int width = source.getWidth();
+		int height = source.getHeight();
+		while(levelScale / 2 >= minScale && width / 2 >= MIN_LEVEL_SIZE && height / 2 >= MIN_LEVEL_SIZE){
+			levelScale /= 2;
+			width /= 2;
+			height /= 2;
+			count++;
+		}
+
+		Bitmap.Config config = source.getConfig() != null ? source.getConfig() : Bitmap.Config.ARGB_8888;
+		BitmapCache cache = cacheKey != null ? BitmapCache.getInstance() : null;
+		BitmapPool pool = cache != null ? null : mPool;
+
+		Bitmap[] levels = new Bitmap[count];
+		levels[0] = source;
+		for(int i = 1; i < count; i++){
+			Bitmap previous = levels[i - 1];
+			try {
+				Bitmap level = cache != null
+						? cache.getLevel(cacheKey, source.getWidth(), source.getHeight(), config, i) : null;
+				if(level == null){
+					level = createLevel(previous, previous.getWidth() / 2, previous.getHeight() / 2, config, pool);
+					if(cache != null){
+						cache.putLevel(cacheKey, source.getWidth(), source.getHeight(), config, i, level);
+					}
+				}
+				levels[i] = level;
+			} catch (OutOfMemoryError e) {
+				//内存不够就只使用已经生成的级别
+				Bitmap[] partial = new Bitmap[i];
+				System.arraycopy(levels, 0, partial, 0, i);
+				levels = partial;
+				break;
+			}
+		}
+		//不持有最后一级的引用，回收到池中之后可能被别人复用. API 11以下setBitmap(null)会抛出异常
+		if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB){
+			mCanvas.setBitmap(null);
+		}
+		mLevels = levels;
+		mShared = cache != null;
+	}
+
+
+	/**
+	 * 把上一级缩小一半，有复用池时优先画到池中的Bitmap上
+	 */
+	private Bitmap createLevel(Bitmap previous, int width, int height, Bitmap.Config config, BitmapPool pool){
+		if(pool == null){
+			return Bitmap.createScaledBitmap(previous, width, height, true);
+		}
+
+		Bitmap level = pool.get(width, height, config);
+		if(level == null){
+			level = Bitmap.createBitmap(width, height, config);
+		}else{
+			level.eraseColor(0);
+		}
+		mCanvas.setBitmap(level);
+		mDst.set(0, 0, width, height);
+		mCanvas.drawBitmap(previous, null, mDst, mPaint);
+		return level;
+	}
+
+
+	/**
+	 * 回收生成的缩小版本，原图不回收. 有复用池时放回池中，共用的缩小版本只释放引用
+	 */
+	public void recycle(){
+		for(int i = 1; i < mLevels.length && !mShared; i++){
+			if(mPool != null){
+				mPool.put(mLevels[i]);
+			}else{
+				mLevels[i].recycle();
+			}
+		}
+		mLevels = EMPTY;
+		mShared = false;
+	}
+
+
+	/**
+	 * 能覆盖缩放比例scale的最小一级
+	 * @param scale 相对于原图的缩放比例
+	 * @return
+	 */
+	public int getLevel(float scale){
+		int level = 0;
+		float levelScale = 1f;
+		while(level + 1 < mLevels.length && levelScale / 2 >= scale){
+			levelScale /= 2;
+			level++;
+		}
+		return level;
+	}
+
+
+	public int getLevelCount(){
+		return mLevels.length;
+	}
+
+
+	public Bitmap getBitmap(int level){
+		return mLevels[level];
+	}
+
+
+	/**
+	 * 原图宽度与该级宽度的比值，画图时需要预先放大该比值
+	 */
+	public float getWidthRatio(int level){
+		return (float) mLevels[0].getWidth() / mLevels[level].getWidth();
+	}
+
+
+	public float getHeightRatio(int level){
+		return (float) mLevels[0].getHeight() / mLevels[level].getHeight();
+	}
+
+}
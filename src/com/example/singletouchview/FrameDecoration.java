@@ -0,0 +1,159 @@
+package com.example.singletouchview;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.Picture;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+import android.os.Build;
+
+/**
+ * 外边框和控制图标的绘制缓存. 以四个顶点和控制图标的位置作为key, 只有几何形状变化时才重新生成Path和图标的位置，
+ * 画笔颜色，线宽，图标变化时只需要重新录制. 软件绘制时录制成Picture, 没有变换的重绘直接回放;
+ * API 23以下硬件加速不支持drawPicture, 这时使用缓存的Path直接画(View自己的display list已经缓存了绘制命令)
+ *
+ * @author xiaanming
+ *
+ */
+public class FrameDecoration {
+	/**
+	 * 硬件加速支持drawPicture的版本(Android 6.0)
+	 */
+	private static final int PICTURE_HARDWARE_SDK = 23;
+
+	private static final int KEY_SIZE = 12;
+
+	private final Path mPath = new Path();
+	private final Picture mPicture = new Picture();
+	private final Rect mControlBounds = new Rect();
+
+	/**
+	 * 8个顶点坐标，控制图标的位置
+	 */
+	private final float[] mKey = new float[KEY_SIZE];
+	private final int[] mControl = new int[4];
+	private boolean mHasKey;
+
+	/**
+	 * Picture需要重新录制
+	 */
+	private boolean mPictureDirty = true;
+
+	/**
+	 * 录制区域的左上角，录制时平移到原点，Picture只录制正坐标的内容
+	 */
+	private int mPictureLeft, mPictureTop;
+
+
+	/**
+	 * 颜色，线宽或者控制图标变化之后调用，下次画时重新录制，不需要重新生成Path
+	 */
+	public void invalidate(){
+		mPictureDirty = true;
+	}
+
+
+	/**
+	 * 画外边框和控制图标，几何形状取自engine最近一次compute()的结果
+	 * @param canvas
+	 * @param engine
+	 * @param paint 画外边框的画笔
+	 * @param control 控制图标
+	 */
+	public void draw(Canvas canvas, TransformEngine engine, Paint paint, Drawable control){
+		float[] corners = engine.getCorners();
+		engine.getControlBounds(mControl);
+		if(updateKey(corners, mControl)){
+			buildGeometry(corners, mControl);
+			mPictureDirty = true;
+		}
+
+		//isHardwareAccelerated()是API 11才有的方法
+		if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+				&& Build.VERSION.SDK_INT < PICTURE_HARDWARE_SDK && canvas.isHardwareAccelerated()){
+			drawDirect(canvas, paint, control);
+			return;
+		}
+
+		if(mPictureDirty){
+			record(paint, control, corners);
+			mPictureDirty = false;
+		}
+		int saveCount = canvas.save();
+		canvas.translate(mPictureLeft, mPictureTop);
+		canvas.drawPicture(mPicture);
+		canvas.restoreToCount(saveCount);
+	}
+
+
+	/**
+	 * 与上一次的key比较并更新
+	 * @return 几何形状是否变化
+	 */
+	private boolean updateKey(float[] corners, int[] controlBounds){
+		float[] key = mKey;
+		boolean changed = !mHasKey;
+		for(int i = 0; i < 8; i++){
+			if(key[i] != corners[i]){
+				key[i] = corners[i];
+				changed = true;
+			}
+		}
+		for(int i = 0; i < 4; i++){
+			if(key[8 + i] != controlBounds[i]){
+				key[8 + i] = controlBounds[i];
+				changed = true;
+			}
+		}
+		mHasKey = true;
+		return changed;
+	}
+
+
+	private void buildGeometry(float[] corners, int[] controlBounds){
+		mPath.rewind();
+		mPath.moveTo(corners[0], corners[1]);
+		mPath.lineTo(corners[2], corners[3]);
+		mPath.lineTo(corners[4], corners[5]);
+		mPath.lineTo(corners[6], corners[7]);
+		mPath.close();
+
+		mControlBounds.set(controlBounds[0], controlBounds[1], controlBounds[2], controlBounds[3]);
+	}
+
+
+	private void drawDirect(Canvas canvas, Paint paint, Drawable control){
+		canvas.drawPath(mPath, paint);
+		control.setBounds(mControlBounds);
+		control.draw(canvas);
+	}
+
+
+	/**
+	 * 录制到Picture中，录制区域是边框(包括线宽)和控制图标的外接矩形
+	 */
+	private void record(Paint paint, Drawable control, float[] corners){
+		float minX = corners[0], maxX = corners[0];
+		float minY = corners[1], maxY = corners[1];
+		for(int i = 2; i < 8; i += 2){
+			minX = Math.min(minX, corners[i]);
+			maxX = Math.max(maxX, corners[i]);
+			minY = Math.min(minY, corners[i + 1]);
+			maxY = Math.max(maxY, corners[i + 1]);
+		}
+		float stroke = paint.getStrokeWidth();
+		int left = (int) Math.floor(Math.min(minX - stroke, mControlBounds.left));
+		int top = (int) Math.floor(Math.min(minY - stroke, mControlBounds.top));
+		int right = (int) Math.ceil(Math.max(maxX + stroke, mControlBounds.right));
+		int bottom = (int) Math.ceil(Math.max(maxY + stroke, mControlBounds.bottom));
+
+		mPictureLeft = left;
+		mPictureTop = top;
+		Canvas recordCanvas = mPicture.beginRecording(right - left, bottom - top);
+		recordCanvas.translate(-left, -top);
+		drawDirect(recordCanvas, paint, control);
+		mPicture.endRecording();
+	}
+
+}
@@ -0,0 +1,243 @@
+package com.example.singletouchview;
+
+import java.util.Arrays;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.view.MotionEvent;
+
+/**
+ * 把录制的{@link GestureTrace}按照原来的时间间隔回放给SingleTouchView, 统计每个事件从分发到
+ * 下一帧画完(onDraw结束)的延迟，合并到下一帧处理的MOVE也包含在内; 以及回放期间连续运动中的帧间隔和卡顿次数.
+ * 回放之前先恢复到录制开始时的状态，同一份录制在不同版本上回放得到的结果可以直接比较. 只能在UI线程中使用
+ *
+ * @author xiaanming
+ *
+ */
+public class GestureReplayer {
+	/**
+	 * 开始回放之前等待的时间，让恢复状态之后的第一帧先画完
+	 */
+	private static final long START_DELAY = 100;
+
+	/**
+	 * 最后一个事件之后继续统计的时间，包括惯性滑动的帧
+	 */
+	private static final long FINISH_DELAY = 500;
+
+	/**
+	 * 回放结束时回调
+	 */
+	public interface Listener {
+		void onReplayFinished(GestureReplayer replayer);
+	}
+
+	private final SingleTouchView mView;
+	private final GestureTrace mTrace;
+	private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+	private TouchMetrics mMetrics;
+	private TouchMetrics mPreviousMetrics;
+	private Listener mListener;
+
+	/**
+	 * 每个事件开始分发的时间(System.nanoTime())
+	 */
+	private final long[] mDispatchTimes;
+
+	/**
+	 * 每个事件从分发到下一帧画完的延迟(纳秒)
+	 */
+	private final long[] mLatencies;
+	private long[] mSortBuffer;
+	private int mEventIndex;
+
+	/**
+	 * 已经画到屏幕上的事件数，之后的事件还在等待下一帧
+	 */
+	private int mDrawnCount;
+	private long mStartTime;
+	private boolean mRunning;
+
+	private final Runnable mDispatchRunnable = new Runnable() {
+
+		@Override
+		public void run() {
+			dispatchNext();
+		}
+	};
+
+	private final Runnable mFinishRunnable = new Runnable() {
+
+		@Override
+		public void run() {
+			finish();
+		}
+	};
+
+	/**
+	 * 每一帧onDraw结束时回调，之前分发的事件都在这一帧中画出
+	 */
+	private final TouchMetrics.Listener mFrameListener = new TouchMetrics.Listener() {
+
+		@Override
+		public void onMetricsReport(TouchMetrics metrics) {
+			onFrameDrawn(metrics.getLastFrameNanos());
+		}
+	};
+
+
+	public GestureReplayer(SingleTouchView view, GestureTrace trace) {
+		this.mView = view;
+		this.mTrace = trace;
+		this.mDispatchTimes = new long[trace.getEventCount()];
+		this.mLatencies = new long[trace.getEventCount()];
+	}
+
+
+	/**
+	 * 开始回放，View原来的TouchMetrics在回放结束之后恢复
+	 * @param listener
+	 */
+	public void start(Listener listener){
+		if(mRunning) return;
+		mRunning = true;
+		mListener = listener;
+		mEventIndex = 0;
+		mDrawnCount = 0;
+		mSortBuffer = null;
+
+		StickerSnapshot initialState = mTrace.getInitialState();
+		if(initialState != null){
+			mView.restoreSnapshot(initialState);
+		}
+
+		mPreviousMetrics = mView.getMetrics();
+		mMetrics = new TouchMetrics(Math.max(TouchMetrics.DEFAULT_CAPACITY, mTrace.getEventCount()));
+		mMetrics.setReportInterval(1);
+		mMetrics.setListener(mFrameListener);
+		mView.setMetrics(mMetrics);
+
+		mStartTime = SystemClock.uptimeMillis() + START_DELAY;
+		scheduleNext();
+	}
+
+
+	/**
+	 * 停止回放，已经统计的结果保留
+	 */
+	public void cancel(){
+		if(!mRunning) return;
+		mHandler.removeCallbacks(mDispatchRunnable);
+		mHandler.removeCallbacks(mFinishRunnable);
+		mView.setMetrics(mPreviousMetrics);
+		mRunning = false;
+	}
+
+
+	public boolean isRunning(){
+		return mRunning;
+	}
+
+
+	private void scheduleNext(){
+		if(mEventIndex < mTrace.getEventCount()){
+			mHandler.postAtTime(mDispatchRunnable, mStartTime + mTrace.getEventTime(mEventIndex));
+		}else{
+			mHandler.postDelayed(mFinishRunnable, FINISH_DELAY);
+		}
+	}
+
+
+	private void dispatchNext(){
+		MotionEvent event = mTrace.obtainEvent(mEventIndex, mStartTime);
+		mDispatchTimes[mEventIndex] = System.nanoTime();
+		mView.dispatchTouchEvent(event);
+		event.recycle();
+
+		mEventIndex++;
+		scheduleNext();
+	}
+
+
+	private void onFrameDrawn(long frameNanos){
+		for(int i = mDrawnCount; i < mEventIndex; i++){
+			mLatencies[i] = frameNanos - mDispatchTimes[i];
+		}
+		mDrawnCount = mEventIndex;
+	}
+
+
+	private void finish(){
+		mView.setMetrics(mPreviousMetrics);
+		mRunning = false;
+		if(mListener != null){
+			mListener.onReplayFinished(this);
+		}
+	}
+
+
+	/**
+	 * 已经回放的事件数
+	 */
+	public int getEventCount(){
+		return mEventIndex;
+	}
+
+
+	/**
+	 * 事件到下一帧画完的延迟的百分位，没有引起重绘的事件(回放结束时还在等待下一帧)不参与统计
+	 * @param percentile 0 - 100
+	 * @return 纳秒，没有事件时返回0
+	 */
+	public long getLatencyPercentile(float percentile){
+		int size = mDrawnCount;
+		if(size == 0) return 0;
+		if(mSortBuffer == null || mSortBuffer.length != size){
+			mSortBuffer = new long[size];
+		}
+		System.arraycopy(mLatencies, 0, mSortBuffer, 0, size);
+		Arrays.sort(mSortBuffer);
+
+		int index = (int) Math.ceil(percentile / 100 * size) - 1;
+		return mSortBuffer[Math.max(0, Math.min(size - 1, index))];
+	}
+
+
+	/**
+	 * 第index个事件到下一帧画完的延迟(纳秒)
+	 * @return 还没有画出时返回-1
+	 */
+	public long getLatency(int index){
+		return index < mDrawnCount ? mLatencies[index] : -1;
+	}
+
+
+	/**
+	 * 回放期间连续运动中帧间隔的百分位，帧间隔才是实际的帧时间，onDraw的CPU耗时参考{@link #getMetrics()}
+	 * @param percentile 0 - 100
+	 * @return 纳秒
+	 */
+	public long getFrameTimePercentile(float percentile){
+		return mMetrics != null ? mMetrics.getFrameIntervalPercentile(percentile) : 0;
+	}
+
+
+	/**
+	 * 回放期间帧间隔超出帧预算的次数(掉帧)
+	 */
+	public long getJankCount(){
+		return mMetrics != null ? mMetrics.getJankCount() : 0;
+	}
+
+
+	/**
+	 * 回放期间的完整统计
+	 * @return 还没有开始回放时为null
+	 */
+	public TouchMetrics getMetrics(){
+		return mMetrics;
+	}
+
+}
@@ -0,0 +1,283 @@
+package com.example.singletouchview;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import android.view.MotionEvent;
+
+/**
+ * 录制下来的一段触摸事件，以及紧凑的二进制格式，用来在不同的版本上回放相同的手势，参考{@link GestureReplayer}.
+ * 头部为 magic(2字节) + 版本(1字节) + 初始状态(2字节长度 + StickerSnapshot) + 事件数(4字节)，
+ * 之后每个事件为 action(2字节) + 样本数(1字节)，每个样本(包括合并在事件中的历史样本)为
+ * 相对第一个事件的时间(毫秒, 4字节) + x, y(各4字节). SingleTouchView只处理第一个手指，只录制第一个手指的坐标
+ *
+ * @author xiaanming
+ *
+ */
+public class GestureTrace {
+	/**
+	 * 当前的格式版本，读取时不支持比它新的版本
+	 */
+	public static final int VERSION = 1;
+
+	private static final short MAGIC = 0x4754;
+
+	/**
+	 * 一个事件最多保存的样本数，超过的历史样本丢弃最早的
+	 */
+	private static final int MAX_SAMPLES_PER_EVENT = 255;
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	/**
+	 * 开始录制时View的状态，回放前先恢复到该状态
+	 */
+	private byte[] mInitialState;
+
+	private int mEventCount;
+	private short[] mActions = new short[INITIAL_CAPACITY];
+	private int[] mDownTimes = new int[INITIAL_CAPACITY];
+
+	/**
+	 * 每个事件的第一个样本在样本数组中的位置，最后一个样本是事件当前的坐标
+	 */
+	private int[] mSampleStarts = new int[INITIAL_CAPACITY + 1];
+
+	private int mSampleCount;
+	private int[] mTimes = new int[INITIAL_CAPACITY];
+	private float[] mXs = new float[INITIAL_CAPACITY];
+	private float[] mYs = new float[INITIAL_CAPACITY];
+
+	/**
+	 * 录制时第一个事件的时间，时间都相对于它保存
+	 */
+	private long mBaseTime;
+	private int mLastDownTime;
+
+
+	/**
+	 * 设置开始录制时View的状态
+	 * @param snapshot
+	 */
+	public void setInitialState(StickerSnapshot snapshot){
+		mInitialState = snapshot != null ? snapshot.toByteArray() : null;
+	}
+
+	/**
+	 * @return 没有记录初始状态返回null
+	 */
+	public StickerSnapshot getInitialState(){
+		return StickerSnapshot.fromByteArray(mInitialState);
+	}
+
+
+	/**
+	 * 录制一个事件，包括合并在其中的历史样本
+	 * @param event
+	 */
+	public void add(MotionEvent event){
+		if(mEventCount == 0 && mSampleCount == 0){
+			mBaseTime = event.getHistorySize() > 0 ? event.getHistoricalEventTime(0) : event.getEventTime();
+		}
+
+		int historySize = event.getHistorySize();
+		int skip = Math.max(0, historySize + 1 - MAX_SAMPLES_PER_EVENT);
+		ensureEventCapacity(mEventCount + 1);
+		ensureSampleCapacity(mSampleCount + historySize + 1 - skip);
+
+		int action = event.getAction() & 0xffff;
+		if((action & MotionEvent.ACTION_MASK) == MotionEvent.ACTION_DOWN){
+			mLastDownTime = (int) (event.getDownTime() - mBaseTime);
+		}
+		mActions[mEventCount] = (short) action;
+		mDownTimes[mEventCount] = mLastDownTime;
+		mSampleStarts[mEventCount] = mSampleCount;
+
+		for(int i = skip; i < historySize; i++){
+			addSample(event.getHistoricalEventTime(i), event.getHistoricalX(i), event.getHistoricalY(i));
+		}
+		addSample(event.getEventTime(), event.getX(), event.getY());
+
+		mEventCount++;
+		mSampleStarts[mEventCount] = mSampleCount;
+	}
+
+
+	private void addSample(long time, float x, float y){
+		mTimes[mSampleCount] = (int) (time - mBaseTime);
+		mXs[mSampleCount] = x;
+		mYs[mSampleCount] = y;
+		mSampleCount++;
+	}
+
+
+	private void ensureEventCapacity(int capacity){
+		if(capacity <= mActions.length) return;
+		int newCapacity = Math.max(capacity, mActions.length * 2);
+		mActions = copyOf(mActions, newCapacity);
+		mDownTimes = copyOf(mDownTimes, newCapacity);
+		mSampleStarts = copyOf(mSampleStarts, newCapacity + 1);
+	}
+
+
+	private void ensureSampleCapacity(int capacity){
+		if(capacity <= mTimes.length) return;
+		int newCapacity = Math.max(capacity, mTimes.length * 2);
+		mTimes = copyOf(mTimes, newCapacity);
+		float[] xs = new float[newCapacity];
+		float[] ys = new float[newCapacity];
+		System.arraycopy(mXs, 0, xs, 0, mSampleCount);
+		System.arraycopy(mYs, 0, ys, 0, mSampleCount);
+		mXs = xs;
+		mYs = ys;
+	}
+
+
+	private static short[] copyOf(short[] array, int length){
+		short[] copy = new short[length];
+		System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+		return copy;
+	}
+
+	private static int[] copyOf(int[] array, int length){
+		int[] copy = new int[length];
+		System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+		return copy;
+	}
+
+
+	public int getEventCount(){
+		return mEventCount;
+	}
+
+
+	/**
+	 * 事件相对于第一个事件的时间(毫秒)
+	 * @param index
+	 * @return
+	 */
+	public long getEventTime(int index){
+		return mTimes[mSampleStarts[index + 1] - 1];
+	}
+
+
+	/**
+	 * 生成第index个事件，时间加上baseTime, 使用完之后需要调用MotionEvent.recycle()
+	 * @param index
+	 * @param baseTime 回放开始的时间(SystemClock.uptimeMillis())
+	 * @return
+	 */
+	public MotionEvent obtainEvent(int index, long baseTime){
+		int start = mSampleStarts[index];
+		int end = mSampleStarts[index + 1];
+		MotionEvent event = MotionEvent.obtain(baseTime + mDownTimes[index], baseTime + mTimes[start],
+				mActions[index] & 0xffff, mXs[start], mYs[start], 0);
+		for(int i = start + 1; i < end; i++){
+			event.addBatch(baseTime + mTimes[i], mXs[i], mYs[i], 1.0f, 1.0f, 0);
+		}
+		return event;
+	}
+
+
+	/**
+	 * 清空录制的事件
+	 */
+	public void clear(){
+		mEventCount = 0;
+		mSampleCount = 0;
+		mLastDownTime = 0;
+	}
+
+
+	/**
+	 * 写入输出流
+	 * @param output 不会被关闭
+	 * @throws IOException
+	 */
+	public void writeTo(OutputStream output) throws IOException{
+		DataOutputStream out = new DataOutputStream(output);
+		out.writeShort(MAGIC);
+		out.writeByte(VERSION);
+		if(mInitialState != null){
+			out.writeShort(mInitialState.length);
+			out.write(mInitialState);
+		}else{
+			out.writeShort(0);
+		}
+
+		out.writeInt(mEventCount);
+		for(int i = 0; i < mEventCount; i++){
+			int start = mSampleStarts[i];
+			int end = mSampleStarts[i + 1];
+			out.writeShort(mActions[i]);
+			out.writeByte(end - start);
+			for(int j = start; j < end; j++){
+				out.writeInt(mTimes[j]);
+				out.writeFloat(mXs[j]);
+				out.writeFloat(mYs[j]);
+			}
+		}
+		out.flush();
+	}
+
+
+	/**
+	 * 从输入流读取
+	 * @param input 不会被关闭
+	 * @return
+	 * @throws IOException 格式不对或者版本比当前新
+	 */
+	public static GestureTrace readFrom(InputStream input) throws IOException{
+		DataInputStream in = new DataInputStream(input);
+		if(in.readShort() != MAGIC){
+			throw new IOException("Not a gesture trace");
+		}
+		int version = in.readUnsignedByte();
+		if(version > VERSION){
+			throw new IOException("Unsupported gesture trace version " + version);
+		}
+
+		GestureTrace trace = new GestureTrace();
+		int stateLength = in.readUnsignedShort();
+		if(stateLength > 0){
+			trace.mInitialState = new byte[stateLength];
+			in.readFully(trace.mInitialState);
+		}
+
+		int eventCount = in.readInt();
+		if(eventCount < 0){
+			throw new IOException("Invalid event count " + eventCount);
+		}
+		for(int i = 0; i < eventCount; i++){
+			int action = in.readUnsignedShort();
+			int sampleCount = in.readUnsignedByte();
+			if(sampleCount == 0){
+				throw new IOException("Event without samples at " + i);
+			}
+			trace.ensureEventCapacity(trace.mEventCount + 1);
+			trace.ensureSampleCapacity(trace.mSampleCount + sampleCount);
+
+			trace.mSampleStarts[i] = trace.mSampleCount;
+			for(int j = 0; j < sampleCount; j++){
+				int time = in.readInt();
+				trace.mTimes[trace.mSampleCount] = time;
+				trace.mXs[trace.mSampleCount] = in.readFloat();
+				trace.mYs[trace.mSampleCount] = in.readFloat();
+				trace.mSampleCount++;
+			}
+			//按下事件没有历史样本，按下的时间就是事件的时间
+			if((action & MotionEvent.ACTION_MASK) == MotionEvent.ACTION_DOWN){
+				trace.mLastDownTime = trace.mTimes[trace.mSampleCount - 1];
+			}
+			trace.mActions[i] = (short) action;
+			trace.mDownTimes[i] = trace.mLastDownTime;
+			trace.mEventCount++;
+			trace.mSampleStarts[trace.mEventCount] = trace.mSampleCount;
+		}
+		return trace;
+	}
+
+}
@@ -0,0 +1,53 @@
+package com.example.singletouchview;
+
+/**
+ * 进程内共享的图片内存的预算. BitmapCache, BitmapPool和TiledBitmap的块缓存各自按比例分配,
+ * 合计不超过最大可用内存的1/8, 留给应用自己的内存不会因为贴图变多而减少
+ *
+ * @author xiaanming
+ *
+ */
+final class MemoryBudget {
+	/**
+	 * 三者合计使用最大可用内存的1/8
+	 */
+	private static final int TOTAL_FRACTION = 8;
+
+	/**
+	 * 在总预算中所占的份数: 转换之后的贴图 2, 复用池 1, 大图的块 1
+	 */
+	private static final int CACHE_SHARE = 2;
+	private static final int POOL_SHARE = 1;
+	private static final int TILE_SHARE = 1;
+	private static final int TOTAL_SHARES = CACHE_SHARE + POOL_SHARE + TILE_SHARE;
+
+	private MemoryBudget() {
+	}
+
+
+	private static long share(int shares){
+		return Runtime.getRuntime().maxMemory() / TOTAL_FRACTION * shares / TOTAL_SHARES;
+	}
+
+	/**
+	 * BitmapCache的字节数
+	 */
+	static int getBitmapCacheBytes(){
+		return (int) share(CACHE_SHARE);
+	}
+
+	/**
+	 * BitmapPool的字节数
+	 */
+	static long getBitmapPoolBytes(){
+		return share(POOL_SHARE);
+	}
+
+	/**
+	 * TiledBitmap块缓存的字节数
+	 */
+	static int getTileCacheBytes(){
+		return (int) share(TILE_SHARE);
+	}
+
+}
@@ -0,0 +1,251 @@
+package com.example.singletouchview;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 以外接矩形为单位的四叉树，用于快速找出某个点下面的所有贴图，不依赖Android API
+ *
+ * @author xiaanming
+ *
+ * @param <T>
+ */
+public class QuadTree<T> {
+	/**
+	 * 节点最多保存的条目数，超过之后分裂
+	 */
+	private static final int MAX_ENTRIES = 8;
+
+	/**
+	 * 树的最大深度
+	 */
+	private static final int MAX_DEPTH = 8;
+
+	/**
+	 * 保存在四叉树中的一个条目, 通过它更新或者删除
+	 */
+	public static final class Entry<T> {
+		private final T item;
+		private float left, top, right, bottom;
+		private Node<T> node;
+
+		private Entry(T item) {
+			this.item = item;
+		}
+
+		public T getItem() {
+			return item;
+		}
+
+		private boolean contains(float x, float y){
+			return x >= left && x < right && y >= top && y < bottom;
+		}
+	}
+
+	private static final class Node<T> {
+		private final float left, top, right, bottom;
+		private final int depth;
+		private Node<T>[] children;
+		private final ArrayList<Entry<T>> entries = new ArrayList<Entry<T>>();
+
+		private Node(float left, float top, float right, float bottom, int depth) {
+			this.left = left;
+			this.top = top;
+			this.right = right;
+			this.bottom = bottom;
+			this.depth = depth;
+		}
+
+		private boolean contains(Entry<T> entry){
+			return entry.left >= left && entry.right <= right
+					&& entry.top >= top && entry.bottom <= bottom;
+		}
+
+		private boolean contains(float x, float y){
+			return x >= left && x < right && y >= top && y < bottom;
+		}
+	}
+
+	private Node<T> mRoot;
+
+	/**
+	 * 所有的条目，重建四叉树时使用
+	 */
+	private final ArrayList<Entry<T>> mEntries = new ArrayList<Entry<T>>();
+
+
+	public QuadTree(float left, float top, float right, float bottom) {
+		mRoot = new Node<T>(left, top, right, bottom, 0);
+	}
+
+
+	/**
+	 * 修改四叉树覆盖的范围，所有条目重新插入
+	 */
+	public void reset(float left, float top, float right, float bottom){
+		mRoot = new Node<T>(left, top, right, bottom, 0);
+		for(int i = 0; i < mEntries.size(); i++){
+			insert(mRoot, mEntries.get(i));
+		}
+	}
+
+
+	/**
+	 * 插入一个条目
+	 * @return 用于之后更新或者删除的Entry
+	 */
+	public Entry<T> insert(T item, float left, float top, float right, float bottom){
+		Entry<T> entry = new Entry<T>(item);
+		entry.left = left;
+		entry.top = top;
+		entry.right = right;
+		entry.bottom = bottom;
+		mEntries.add(entry);
+		insert(mRoot, entry);
+		return entry;
+	}
+
+
+	/**
+	 * 条目的外接矩形发生变化
+	 */
+	public void update(Entry<T> entry, float left, float top, float right, float bottom){
+		entry.left = left;
+		entry.top = top;
+		entry.right = right;
+		entry.bottom = bottom;
+
+		Node<T> node = entry.node;
+		//仍然在原来的节点范围内，并且不能下沉到子节点，则无需移动
+		if(node != null && (node == mRoot || node.contains(entry)) && !fitsChild(node, entry)){
+			return;
+		}
+
+		detach(entry);
+		insert(mRoot, entry);
+	}
+
+
+	public void remove(Entry<T> entry){
+		detach(entry);
+		mEntries.remove(entry);
+	}
+
+
+	public void clear(){
+		mEntries.clear();
+		mRoot = new Node<T>(mRoot.left, mRoot.top, mRoot.right, mRoot.bottom, 0);
+	}
+
+
+	public int size(){
+		return mEntries.size();
+	}
+
+
+	/**
+	 * 查询外接矩形包含(x, y)的所有条目
+	 * @param x
+	 * @param y
+	 * @param result 保存查询结果，调用之前会被清空
+	 */
+	public void query(float x, float y, List<T> result){
+		result.clear();
+		Node<T> node = mRoot;
+		while(node != null){
+			ArrayList<Entry<T>> entries = node.entries;
+			for(int i = 0; i < entries.size(); i++){
+				Entry<T> entry = entries.get(i);
+				if(entry.contains(x, y)){
+					result.add(entry.item);
+				}
+			}
+
+			Node<T>[] children = node.children;
+			node = null;
+			if(children != null){
+				for(int i = 0; i < children.length; i++){
+					if(children[i].contains(x, y)){
+						node = children[i];
+						break;
+					}
+				}
+			}
+		}
+	}
+
+
+	private void insert(Node<T> node, Entry<T> entry){
+		while(true){
+			Node<T> child = findChild(node, entry);
+			if(child == null) break;
+			node = child;
+		}
+
+		node.entries.add(entry);
+		entry.node = node;
+
+		if(node.children == null && node.entries.size() > MAX_ENTRIES && node.depth < MAX_DEPTH){
+			split(node);
+		}
+	}
+
+
+	private void detach(Entry<T> entry){
+		if(entry.node != null){
+			entry.node.entries.remove(entry);
+			entry.node = null;
+		}
+	}
+
+
+	private void split(Node<T> node){
+		float centerX = (node.left + node.right) / 2;
+		float centerY = (node.top + node.bottom) / 2;
+		int depth = node.depth + 1;
+
+		node.children = newNodeArray(4);
+		node.children[0] = new Node<T>(node.left, node.top, centerX, centerY, depth);
+		node.children[1] = new Node<T>(centerX, node.top, node.right, centerY, depth);
+		node.children[2] = new Node<T>(node.left, centerY, centerX, node.bottom, depth);
+		node.children[3] = new Node<T>(centerX, centerY, node.right, node.bottom, depth);
+
+		//能完全放进子节点的条目下沉
+		ArrayList<Entry<T>> entries = node.entries;
+		for(int i = entries.size() - 1; i >= 0; i--){
+			Entry<T> entry = entries.get(i);
+			Node<T> child = findChild(node, entry);
+			if(child != null){
+				entries.remove(i);
+				insert(child, entry);
+			}
+		}
+	}
+
+
+	/**
+	 * 泛型数组不能直接创建，通过通配符数组转换
+	 */
+	@SuppressWarnings("unchecked")
+	private static <T> Node<T>[] newNodeArray(int size){
+		return (Node<T>[]) new Node<?>[size];
+	}
+
+
+	private boolean fitsChild(Node<T> node, Entry<T> entry){
+		return findChild(node, entry) != null;
+	}
+
+
+	private Node<T> findChild(Node<T> node, Entry<T> entry){
+		Node<T>[] children = node.children;
+		if(children == null) return null;
+		for(int i = 0; i < children.length; i++){
+			if(children[i].contains(entry)){
+				return children[i];
+			}
+		}
+		return null;
+	}
+
+}
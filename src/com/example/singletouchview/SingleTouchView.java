@@ -1,30 +1,34 @@
 package com.example.singletouchview;
 
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.List;
-
 import android.content.Context;
 import android.content.res.TypedArray;
 import android.graphics.Bitmap;
 import android.graphics.Bitmap.Config;
+import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.Paint.Style;
-import android.graphics.Path;
+import android.graphics.PixelFormat;
 import android.graphics.Point;
 import android.graphics.PointF;
+import android.graphics.Rect;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.support.v4.view.ViewCompat;
 import android.util.AttributeSet;
 import android.util.DisplayMetrics;
-import android.util.FloatMath;
 import android.util.TypedValue;
 import android.view.MotionEvent;
 import android.view.View;
+import android.view.ViewParent;
 import android.view.ViewGroup;
+import android.view.animation.Interpolator;
 
 /**
  * 单手对图片进行缩放，旋转，平移操作，详情请查看
@@ -48,10 +52,10 @@ public class SingleTouchView extends View {
 	/**
 	 * 控制缩放，旋转图标所在四个点得位置
 	 */
-	public static final int LEFT_TOP = 0;
-	public static final int RIGHT_TOP = 1;
-	public static final int RIGHT_BOTTOM = 2;
-	public static final int LEFT_BOTTOM = 3;
+	public static final int LEFT_TOP = TransformEngine.LEFT_TOP;
+	public static final int RIGHT_TOP = TransformEngine.RIGHT_TOP;
+	public static final int RIGHT_BOTTOM = TransformEngine.RIGHT_BOTTOM;
+	public static final int LEFT_BOTTOM = TransformEngine.LEFT_BOTTOM;
 	
 	/**
 	 * 一些默认的常量
@@ -66,6 +70,27 @@ public class SingleTouchView extends View {
 	public static final int DEFAULT_OTHER_DRAWABLE_WIDTH = 50;
 	public static final int DEFAULT_OTHER_DRAWABLE_HEIGHT = 50;
 	
+	/**
+	 * 每次平移，旋转，缩放都调用layout()调整View的位置和大小，API 11以下只能使用该模式
+	 */
+	public static final int RENDER_MODE_LAYOUT = 0;
+	
+	/**
+	 * 平移只修改translationX, translationY，旋转缩放只修改Matrix，
+	 * 只有旋转之后的四边形超出View的范围时才requestLayout()放大View, 需要API 11以上，低版本自动使用RENDER_MODE_LAYOUT
+	 */
+	public static final int RENDER_MODE_TRANSLATION = 1;
+	
+	public static final int DEFAULT_RENDER_MODE = RENDER_MODE_TRANSLATION;
+	public static final boolean DEFAULT_COALESCE_TOUCH = true;
+	public static final boolean DEFAULT_GESTURE_LOW_QUALITY = true;
+	public static final int DEFAULT_HISTORY_SIZE = 32;
+	public static final boolean DEFAULT_PRECISE_HIT_TEST = false;
+	public static final boolean DEFAULT_FLING_ENABLED = true;
+	public static final boolean DEFAULT_BITMAP_REUSE = false;
+	public static final boolean DEFAULT_SNAP_ENABLED = false;
+	public static final int DEFAULT_SNAP_TOLERANCE = 8;
+	
 	
 	
 	/**
@@ -74,24 +99,118 @@ public class SingleTouchView extends View {
 	private Bitmap mBitmap;
 	
 	/**
-	 * SingleTouchView的中心点坐标，相对于其父类布局而言的
+	 * mBitmap的多级缩小版本，画图时根据缩放比例选择. 不是自己解码的图片由多个View共用，缩小版本放在BitmapCache中
 	 */
-	private PointF mCenterPoint = new PointF();
+	private final BitmapPyramid mPyramid = new BitmapPyramid();
+	
+	/**
+	 * mBitmap是否是该View自己解码的，是的话更换图片时放入BitmapPool复用
+	 */
+	private boolean mOwnsBitmap;
+	
+	/**
+	 * mBitmap解码时的inSampleSize, 显示和计算都按mBitmap的大小乘以该值进行，
+	 * 与按原图大小解码的setImageResource()显示的大小一致
+	 */
+	private int mBitmapSampleSize = 1;
+	
+	/**
+	 * 不透明的图片使用的Config, 透明的图片总是使用ARGB_8888
+	 */
+	private Config opaqueConfig = Config.ARGB_8888;
+	
+	/**
+	 * setImageResource()是否通过BitmapPool复用之前的图片内存来解码
+	 */
+	private boolean bitmapReuse = DEFAULT_BITMAP_REUSE;
+	
+	/**
+	 * 复用解码时使用的参数
+	 */
+	private final BitmapFactory.Options mDecodeOptions = new BitmapFactory.Options();
+	
+	/**
+	 * 正在后台加载的图片请求，以及加载时显示的图片
+	 */
+	private StickerImageLoader.Request mLoadRequest;
+	private Drawable placeholder;
+	
+	/**
+	 * 大图的分块解码，通过setImageRegionUri()设置时不为null, mBitmap是它的底图
+	 */
+	private TiledBitmap mTiles;
+	private final Rect mVisibleRect = new Rect();
+	
+	private final TiledBitmap.Callback mTilesCallback = new TiledBitmap.Callback() {
+		
+		@Override
+		public void onTilesChanged(TiledBitmap tiledBitmap) {
+			if(tiledBitmap == mTiles){
+				invalidate();
+			}
+		}
+	};
+	
+	/**
+	 * 后台加载完成的回调
+	 */
+	private final StickerImageLoader.Callback mLoadCallback = new StickerImageLoader.Callback() {
+		
+		@Override
+		public void onImageLoaded(StickerImageLoader.Request request, Bitmap bitmap) {
+			if(request != mLoadRequest){
+				if(bitmap != null) bitmap.recycle();
+				return;
+			}
+			mLoadRequest = null;
+			if(bitmap != null){
+				setBitmap(request.getResourceId(), bitmap, true, request.getSampleSize());
+			}else{
+				//没有底图也就不能分块显示
+				releaseTiles();
+			}
+		}
+	};
+	
+	/**
+	 * mBitmap的透明度掩码，第一次点击时获取
+	 */
+	private AlphaMask mAlphaMask;
+	
+	/**
+	 * 点击位置映射到图片坐标之后的结果
+	 */
+	private final float[] mHitPoint = new float[2];
+	
+	/**
+	 * mBitmap对应的资源id，直接设置Bitmap或者Drawable时为0，保存状态时使用
+	 */
+	private int mImageResId;
+	
+	/**
+	 * 调用者定义的图片标识，保存到StickerSnapshot中，恢复时由调用者根据它提供图片
+	 */
+	private int mImageId;
+	
+	/**
+	 * 通过setImageUri()或者setImageRegionUri()设置的图片，导出时从它解码原始分辨率
+	 */
+	private Uri mImageUri;
 	
 	/**
-	 * View的宽度和高度，随着图片的旋转而变化(不包括控制旋转，缩放图片的宽高)
+	 * SingleTouchView的中心点坐标，相对于其父类布局而言的, 实际的值保存在mEngine中
 	 */
-	private int mViewWidth, mViewHeight;
+	private PointF mCenterPoint = new PointF();
 	
 	/**
-	 * 图片的旋转角度
+	 * 缩放，旋转，平移的计算核心, 中心点，旋转角度，缩放比例，四个点坐标都由它维护
 	 */
-	private float mDegree = DEFAULT_DEGREE;
+	private final TransformEngine mEngine = new TransformEngine();
 	
 	/**
-	 * 图片的缩放比例
+	 * 中心点是否已经确定(放在父布局中心，或者被设置，恢复过)，确定之后onMeasure不再修改
 	 */
-	private float mScale = DEFAULT_SCALE;
+	private boolean mCenterInitialized;
 	
 	/**
 	 * 用于缩放，旋转，平移的矩阵
@@ -99,27 +218,36 @@ public class SingleTouchView extends View {
 	private Matrix matrix = new Matrix();
 	
 	/**
-	 * SingleTouchView距离父类布局的左间距
+	 * mBitmap像素到View的矩阵，即matrix预先放大mBitmapSampleSize
 	 */
-	private int mViewPaddingLeft;
+	private Matrix mBitmapMatrix = new Matrix();
 	
 	/**
-	 * SingleTouchView距离父类布局的上间距
+	 * 画缩小版本的图片时使用的矩阵
 	 */
-	private int mViewPaddingTop;
+	private Matrix mDrawMatrix = new Matrix();
+	
+	/**
+	 * 上一次画的四边形(包括控制图标和边框线宽)的范围，与这一次的范围合并之后作为刷新区域
+	 */
+	private final Rect mLastQuadRect = new Rect();
+	private final Rect mQuadRect = new Rect();
+	private final Rect mDirtyRect = new Rect();
+	
+	/**
+	 * SingleTouchView距离父类布局的左间距(包括translationX)
+	 */
+	private int mViewPaddingLeft;
 	
 	/**
-	 * 图片四个点坐标
+	 * SingleTouchView距离父类布局的上间距(包括translationY)
 	 */
-	private Point mLTPoint;
-	private Point mRTPoint;
-	private Point mRBPoint;
-	private Point mLBPoint;
+	private int mViewPaddingTop;
 	
 	/**
-	 * 用于缩放，旋转的控制点的坐标
+	 * RENDER_MODE_TRANSLATION模式下View可能比图片大，图片在View中的偏移量
 	 */
-	private Point mControlPoint = new Point();
+	private int mContentOffsetX, mContentOffsetY;
 	
 	/**
 	 * 用于缩放，旋转的图标
@@ -132,15 +260,20 @@ public class SingleTouchView extends View {
 	private int mDrawableWidth, mDrawableHeight;
 	
 	/**
-	 * 画外围框的Path
+	 * 外围框和控制图标的绘制缓存，变换不变时不重新生成Path
 	 */
-	private Path mPath = new Path();
+	private final FrameDecoration mDecoration = new FrameDecoration();
 	
 	/**
 	 * 画外围框的画笔
 	 */
 	private Paint mPaint ;
 	
+	/**
+	 * 画图片的画笔，与画外围框的画笔分开，手势进行中可以临时关闭过滤
+	 */
+	private Paint mBitmapPaint;
+	
 	/**
 	 * 初始状态
 	 */
@@ -188,18 +321,131 @@ public class SingleTouchView extends View {
 	private PointF mCurMovePointF = new PointF();
 	
 	/**
-	 * 图片在旋转时x方向的偏移量
+	 * 控制图标所在的位置（比如左上，右上，左下，右下）
+	 */
+	private int controlLocation = DEFAULT_CONTROL_LOCATION;
+	
+	/**
+	 * 平移，旋转，缩放时调整View的方式
 	 */
-	private int offsetX;
+	private int renderMode = DEFAULT_RENDER_MODE;
+	
 	/**
-	 * 图片在旋转时y方向的偏移量
+	 * 是否把一帧之内的多个ACTION_MOVE合并，每帧只调整一次Matrix和布局
 	 */
-	private int offsetY;
+	private boolean coalesceTouch = DEFAULT_COALESCE_TOUCH;
 	
 	/**
-	 * 控制图标所在的位置（比如左上，右上，左下，右下）
+	 * 手势进行中是否降低绘制质量：拖动时使用硬件层，旋转缩放时关闭图片过滤，抬起时再以完整质量重画
 	 */
-	private int controlLocation = DEFAULT_CONTROL_LOCATION;
+	private boolean gestureLowQuality = DEFAULT_GESTURE_LOW_QUALITY;
+	
+	/**
+	 * 手势开始之前的layer类型，手势结束之后恢复
+	 */
+	private int mSavedLayerType = ViewCompat.LAYER_TYPE_NONE;
+	
+	/**
+	 * 当前是否处于降低质量的状态, 以及是否为此提升了硬件层
+	 */
+	private boolean mLowQuality;
+	private boolean mLayerPromoted;
+	
+	/**
+	 * 是否只有点中图片的不透明区域才开始拖动，否则事件交给下面的View
+	 */
+	private boolean preciseHitTest = DEFAULT_PRECISE_HIT_TEST;
+	
+	/**
+	 * 撤销，重做的记录，每次手势结束记录一次
+	 */
+	private final TransformHistory mHistory = new TransformHistory(DEFAULT_HISTORY_SIZE);
+	
+	/**
+	 * 手势开始(ACTION_DOWN)时的中心点，旋转角度和缩放比例
+	 */
+	private float mDownCenterX, mDownCenterY, mDownDegree, mDownScale;
+	
+	/**
+	 * 抬起之后是否继续惯性滑动，以及惯性滑动的状态
+	 */
+	private boolean flingEnabled = DEFAULT_FLING_ENABLED;
+	private final TransformFling mFling = new TransformFling();
+	
+	/**
+	 * 拖动时是否吸附到父布局中心，网格和其他贴图的边和中心，吸附范围(像素)和网格大小(像素, 0表示没有网格)
+	 */
+	private boolean snapEnabled = DEFAULT_SNAP_ENABLED;
+	private int snapTolerance = DEFAULT_SNAP_TOLERANCE;
+	private int snapGrid;
+	
+	/**
+	 * 与其他贴图共用的对齐线索引，以及该贴图在其中的条目
+	 */
+	private AlignmentIndex mAlignmentIndex;
+	private AlignmentIndex.Entry mAlignmentEntry;
+	
+	/**
+	 * 拖动时没有吸附的中心点，吸附只是在它的基础上偏移，离开吸附范围后回到手指的位置
+	 */
+	private float mRawCenterX, mRawCenterY;
+	
+	/**
+	 * 当前吸附的对齐线(父布局坐标)，没有吸附时为NaN. 对齐线由父布局AlignmentGuideLayout画出
+	 */
+	private float mGuideX = Float.NaN, mGuideY = Float.NaN;
+	
+	/**
+	 * 查找吸附目标时的临时结果
+	 */
+	private float mSnapOffset, mSnapLine;
+	private float mHalfWidth, mHalfHeight;
+	
+	/**
+	 * 惯性滑动，与animateTo()一样由TransformAnimator驱动，固定步长由TransformFling保证. 第一次使用时创建
+	 */
+	private TransformAnimator.Animation mFlingAnimation;
+	
+	/**
+	 * 惯性滑动开始时是否包含旋转或者缩放，只有平移时不需要重新计算Matrix
+	 */
+	private boolean mFlingRotateZoom;
+	
+	/**
+	 * animateTo()的动画，由所有贴图共用的TransformAnimator驱动，第一次使用时创建
+	 */
+	private TransformAnimator.Animation mAnimation;
+	
+	/**
+	 * 各阶段耗时统计，为null时不统计
+	 */
+	private TouchMetrics mMetrics;
+	
+	/**
+	 * 正在录制的手势，不为null时onTouchEvent收到的事件都会写入
+	 */
+	private GestureTrace mRecordingTrace;
+	
+	/**
+	 * 是否已经请求在下一帧应用变换
+	 */
+	private boolean mFramePending;
+	
+	/**
+	 * 下一帧是否需要重新计算Matrix(旋转缩放)，否则只需要调整位置(拖动)
+	 */
+	private boolean mPendingCompute;
+	
+	/**
+	 * 在下一帧应用合并之后的变换
+	 */
+	private final Runnable mApplyTransformRunnable = new Runnable() {
+		
+		@Override
+		public void run() {
+			applyPendingTransform();
+		}
+	};
 
 	
 	public SingleTouchView(Context context, AttributeSet attrs) {
@@ -212,36 +458,54 @@ public class SingleTouchView extends View {
 
 	public SingleTouchView(Context context, AttributeSet attrs, int defStyle) {
 		super(context, attrs, defStyle);
-		obtainStyledAttributes(attrs);
+		int asyncResId = obtainStyledAttributes(attrs);
 		init();
+		
+		if(asyncResId != 0){
+			setImageResourceAsync(asyncResId);
+		}
 	}
 	
 	/**
 	 * 获取自定义属性
 	 * @param attrs
+	 * @return asyncSrc为true时需要在后台加载的src资源id，否则为0
 	 */
-	private void obtainStyledAttributes(AttributeSet attrs){
+	private int obtainStyledAttributes(AttributeSet attrs){
 		metrics = getContext().getResources().getDisplayMetrics();
 		framePadding = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, DEFAULT_FRAME_PADDING, metrics);
+		snapTolerance = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, DEFAULT_SNAP_TOLERANCE, metrics);
 		frameWidth = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, DEFAULT_FRAME_WIDTH, metrics);
 		
 		TypedArray mTypedArray = getContext().obtainStyledAttributes(attrs,
 				R.styleable.SingleTouchView);
 		
-		Drawable srcDrawble = mTypedArray.getDrawable(R.styleable.SingleTouchView_src);
-		mBitmap = drawable2Bitmap(srcDrawble);
+		int srcResId = mTypedArray.getResourceId(R.styleable.SingleTouchView_src, 0);
+		placeholder = mTypedArray.getDrawable(R.styleable.SingleTouchView_placeholder);
+		
+		//asyncSrc为true时src在构造之后由后台线程加载，这里只显示placeholder
+		boolean asyncSrc = srcResId != 0 && mTypedArray.getBoolean(R.styleable.SingleTouchView_asyncSrc, false);
+		mImageResId = asyncSrc ? 0 : srcResId;
+		Drawable srcDrawble = asyncSrc ? placeholder : mTypedArray.getDrawable(R.styleable.SingleTouchView_src);
+		mBitmap = drawable2Bitmap(mImageResId, srcDrawble);
+		mAlphaMask = null;
+		//placeholder只显示到加载完成，不生成缩小版本
+		if(!asyncSrc){
+			buildPyramid(mImageResId, false);
+		}
 		
 		framePadding = mTypedArray.getDimensionPixelSize(R.styleable.SingleTouchView_framePadding, framePadding);
 		frameWidth = mTypedArray.getDimensionPixelSize(R.styleable.SingleTouchView_frameWidth, frameWidth);
 		frameColor = mTypedArray.getColor(R.styleable.SingleTouchView_frameColor, DEFAULT_FRAME_COLOR);
-		mScale = mTypedArray.getFloat(R.styleable.SingleTouchView_scale, DEFAULT_SCALE);
-		mDegree = mTypedArray.getFloat(R.styleable.SingleTouchView_degree, DEFAULT_DEGREE);
+		mEngine.setScale(mTypedArray.getFloat(R.styleable.SingleTouchView_scale, DEFAULT_SCALE));
+		mEngine.setDegree(mTypedArray.getFloat(R.styleable.SingleTouchView_degree, DEFAULT_DEGREE));
 		controlDrawable = mTypedArray.getDrawable(R.styleable.SingleTouchView_controlDrawable);
 		controlLocation = mTypedArray.getInt(R.styleable.SingleTouchView_controlLocation, DEFAULT_CONTROL_LOCATION);
 		isEditable = mTypedArray.getBoolean(R.styleable.SingleTouchView_editable, DEFAULT_EDITABLE);
 		
 		mTypedArray.recycle();
 		
+		return asyncSrc ? srcResId : 0;
 	}
 	
 	
@@ -252,6 +516,10 @@ public class SingleTouchView extends View {
 		mPaint.setStrokeWidth(frameWidth);
 		mPaint.setStyle(Style.STROKE);
 		
+		mBitmapPaint = new Paint();
+		mBitmapPaint.setAntiAlias(true);
+		mBitmapPaint.setFilterBitmap(true);
+		
 		if(controlDrawable == null){
 			controlDrawable = getContext().getResources().getDrawable(R.drawable.st_rotate_icon);
 		}
@@ -259,6 +527,10 @@ public class SingleTouchView extends View {
 		mDrawableWidth = controlDrawable.getIntrinsicWidth();
 		mDrawableHeight = controlDrawable.getIntrinsicHeight();
 		
+		mEngine.setScaleRange(MIN_SCALE, MAX_SCALE);
+		mEngine.setControlSize(mDrawableWidth, mDrawableHeight);
+		mEngine.setControlLocation(controlLocation);
+		
 		transformDraw(); 
 	}
 	
@@ -267,12 +539,38 @@ public class SingleTouchView extends View {
 	protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
 		super.onMeasure(widthMeasureSpec, heightMeasureSpec);
 		
-		//获取SingleTouchView所在父布局的中心点
+		//获取SingleTouchView所在父布局的中心点, 只在第一次确定，之后的measure不会把移动过的图片放回中心
 		ViewGroup mViewGroup = (ViewGroup) getParent();
-		if(null != mViewGroup){
+		if(null != mViewGroup && !mCenterInitialized){
 			int parentWidth = mViewGroup.getWidth();
 			int parentHeight = mViewGroup.getHeight();
-			mCenterPoint.set(parentWidth/2, parentHeight/2);
+			mEngine.setCenter(parentWidth/2, parentHeight/2);
+			mCenterInitialized = parentWidth > 0 && parentHeight > 0;
+		}
+		
+		if(mBitmap == null) return;
+		if(isTranslationMode()){
+			//View只会变大，放不下旋转之后的四边形时由adjustTranslation()请求重新measure
+			setMeasuredDimension(Math.max(mEngine.getLayoutWidth(), getWidth()),
+					Math.max(mEngine.getLayoutHeight(), getHeight()));
+		}else{
+			setMeasuredDimension(mEngine.getLayoutWidth(), mEngine.getLayoutHeight());
+		}
+	}
+	
+	@Override
+	protected void onLayout(boolean changed, int left, int top, int right,
+			int bottom) {
+		super.onLayout(changed, left, top, right, bottom);
+		if(mBitmap == null) return;
+		
+		if(isTranslationMode()){
+			//父布局重新摆放之后只根据新的位置修正translation, 不在layout过程中再次layout
+			updateTranslation(mEngine.getLayoutLeft(), mEngine.getLayoutTop());
+			updateAlignmentEntry();
+		}else{
+			//RENDER_MODE_LAYOUT模式下父布局可能把View摆放在别的位置，位置不对时移回去，第二次onLayout时位置已经一致
+			adjustLayout();
 		}
 	}
 	
@@ -281,20 +579,74 @@ public class SingleTouchView extends View {
 	 * 调整View的大小，位置
 	 */
 	private void adjustLayout(){
-		int actualWidth = mViewWidth + mDrawableWidth;
-		int actualHeight = mViewHeight + mDrawableHeight;
+		int actualWidth = mEngine.getLayoutWidth();
+		int actualHeight = mEngine.getLayoutHeight();
 		
-		int newPaddingLeft = (int) (mCenterPoint.x - actualWidth /2);
-		int newPaddingTop = (int) (mCenterPoint.y - actualHeight/2);
+		int newPaddingLeft = mEngine.getLayoutLeft();
+		int newPaddingTop = mEngine.getLayoutTop();
 		
-		if(mViewPaddingLeft != newPaddingLeft || mViewPaddingTop != newPaddingTop){
+		TouchMetrics metrics = mMetrics;
+		long start = metrics != null ? metrics.begin(TouchMetrics.STAGE_ADJUST_LAYOUT) : 0;
+		
+		if(isTranslationMode()){
+			adjustTranslation(actualWidth, actualHeight, newPaddingLeft, newPaddingTop);
+		}else{
 			mViewPaddingLeft = newPaddingLeft;
 			mViewPaddingTop = newPaddingTop;
+			mContentOffsetX = 0;
+			mContentOffsetY = 0;
 			
-//			layout(newPaddingLeft, newPaddingTop, newPaddingLeft + actualWidth, newPaddingTop + actualHeight);
+			//父布局可能已经重新摆放过该View, 所以和当前实际的位置大小比较
+			if(getLeft() != newPaddingLeft || getTop() != newPaddingTop
+					|| getWidth() != actualWidth || getHeight() != actualHeight){
+				layout(newPaddingLeft, newPaddingTop, newPaddingLeft + actualWidth, newPaddingTop + actualHeight);
+				if(metrics != null) metrics.count(TouchMetrics.COUNTER_LAYOUT);
+			}
+		}
+		
+		updateAlignmentEntry();
+		
+		if(metrics != null) metrics.end(TouchMetrics.STAGE_ADJUST_LAYOUT, start);
+	}
+	
+	
+	/**
+	 * RENDER_MODE_TRANSLATION模式下通过translation调整View的位置，View放不下旋转之后的图片时requestLayout(),
+	 * 由onMeasure()放大View, 在那之前按照当前的大小居中
+	 * @param actualWidth
+	 * @param actualHeight
+	 * @param newPaddingLeft
+	 * @param newPaddingTop
+	 */
+	private void adjustTranslation(int actualWidth, int actualHeight, int newPaddingLeft, int newPaddingTop){
+		if(actualWidth > getWidth() || actualHeight > getHeight()){
+			requestLayout();
+			if(mMetrics != null) mMetrics.count(TouchMetrics.COUNTER_LAYOUT);
 		}
+		updateTranslation(newPaddingLeft, newPaddingTop);
+	}
+	
+	
+	/**
+	 * 图片在View中居中，根据当前的位置和大小计算图片的偏移量和translation
+	 * @param newPaddingLeft
+	 * @param newPaddingTop
+	 */
+	private void updateTranslation(int newPaddingLeft, int newPaddingTop){
+		mContentOffsetX = (getWidth() - mEngine.getLayoutWidth()) / 2;
+		mContentOffsetY = (getHeight() - mEngine.getLayoutHeight()) / 2;
+		
+		mViewPaddingLeft = newPaddingLeft - mContentOffsetX;
+		mViewPaddingTop = newPaddingTop - mContentOffsetY;
 		
-		layout(newPaddingLeft, newPaddingTop, newPaddingLeft + actualWidth, newPaddingTop + actualHeight);
+		ViewCompat.setTranslationX(this, mViewPaddingLeft - getLeft());
+		ViewCompat.setTranslationY(this, mViewPaddingTop - getTop());
+	}
+	
+	
+	private boolean isTranslationMode(){
+		return renderMode == RENDER_MODE_TRANSLATION
+				&& Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB;
 	}
 	
 	
@@ -303,8 +655,10 @@ public class SingleTouchView extends View {
 	 * @param bitmap
 	 */
 	public void setImageBitamp(Bitmap bitmap){
-		this.mBitmap = bitmap;
-		transformDraw();
+		cancelLoad();
+		releaseTiles();
+		mImageUri = null;
+		setBitmap(0, bitmap, false);
 	}
 	
 	
@@ -313,16 +667,135 @@ public class SingleTouchView extends View {
 	 * @param drawable
 	 */
 	public void setImageDrawable(Drawable drawable){
-		this.mBitmap = drawable2Bitmap(drawable);
+		cancelLoad();
+		releaseTiles();
+		mImageUri = null;
+		setImageDrawable(0, drawable);
+	}
+	
+	private void setImageDrawable(int resId, Drawable drawable){
+		setBitmap(resId, drawable2Bitmap(resId, drawable), false);
+	}
+	
+	
+	private void setBitmap(int resId, Bitmap bitmap, boolean owned){
+		setBitmap(resId, bitmap, owned, 1, true);
+	}
+	
+	private void setBitmap(int resId, Bitmap bitmap, boolean owned, int sampleSize){
+		setBitmap(resId, bitmap, owned, sampleSize, true);
+	}
+	
+	/**
+	 * 更换图片，之前自己解码的图片放入BitmapPool
+	 * @param resId
+	 * @param bitmap
+	 * @param owned 是否是该View自己解码的
+	 * @param sampleSize 解码时的inSampleSize
+	 * @param pyramid 是否生成缩小版本，placeholder不需要
+	 */
+	private void setBitmap(int resId, Bitmap bitmap, boolean owned, int sampleSize, boolean pyramid){
+		Bitmap old = mOwnsBitmap ? mBitmap : null;
+		this.mBitmap = bitmap;
+		this.mImageResId = resId;
+		this.mOwnsBitmap = owned;
+		this.mBitmapSampleSize = sampleSize;
+		this.mAlphaMask = null;
+		if(pyramid){
+			buildPyramid(resId, owned);
+		}else{
+			mPyramid.recycle();
+		}
+		
+		if(old != null && old != bitmap){
+			AlphaMask.remove(old);
+			BitmapPool.getInstance().put(old);
+		}
 		transformDraw();
 	}
 	
+	
+	/**
+	 * 生成mBitmap的缩小版本. 自己解码的图片只有该View使用，缩小版本也是私有的(开启bitmapReuse时来自BitmapPool);
+	 * 其他图片以资源id(没有时是Bitmap本身)作为来源标识，缩小版本从BitmapCache中共用
+	 * @param resId mBitmap对应的资源id, 没有则传0
+	 * @param owned mBitmap是否是该View自己解码的
+	 */
+	private void buildPyramid(int resId, boolean owned){
+		Object cacheKey = null;
+		if(!owned && mBitmap != null){
+			cacheKey = resId != 0 ? Integer.valueOf(resId) : mBitmap;
+		}
+		mPyramid.build(mBitmap, MIN_SCALE, cacheKey);
+	}
+	
+	
+	/**
+	 * 把自己解码的图片和缩小版本放回BitmapPool，之后的解码可以复用它们的内存
+	 */
+	private void releaseOwnedBitmap(){
+		if(!mOwnsBitmap || mBitmap == null) return;
+		mPyramid.recycle();
+		AlphaMask.remove(mBitmap);
+		BitmapPool.getInstance().put(mBitmap);
+		mBitmap = null;
+		mOwnsBitmap = false;
+		mBitmapSampleSize = 1;
+	}
+	
+	
+	/**
+	 * 通过BitmapPool中大小一致的Bitmap解码图片资源，jpeg图片使用opaqueConfig
+	 * @param resId
+	 * @return 不是位图资源或者解码失败返回null
+	 */
+	private Bitmap decodeReusable(int resId){
+		BitmapFactory.Options options = mDecodeOptions;
+		options.inJustDecodeBounds = true;
+		options.inBitmap = null;
+		options.outWidth = 0;
+		//上一次解码会把资源目录的密度写回inDensity, inTargetDensity, 不清除的话下一张图片按上一张的密度缩放
+		options.inDensity = 0;
+		options.inTargetDensity = 0;
+		options.inScaled = true;
+		BitmapFactory.decodeResource(getResources(), resId, options);
+		if(options.outWidth <= 0 || options.outHeight <= 0){
+			return null;
+		}
+		
+		Config config = "image/jpeg".equals(options.outMimeType) ? opaqueConfig : Config.ARGB_8888;
+		options.inJustDecodeBounds = false;
+		options.inPreferredConfig = config;
+		options.inMutable = true;
+		options.inSampleSize = 1;
+		options.inBitmap = BitmapPool.getInstance().get(options.outWidth, options.outHeight, config);
+		
+		try {
+			Bitmap bitmap;
+			try {
+				bitmap = BitmapFactory.decodeResource(getResources(), resId, options);
+			} catch (IllegalArgumentException e) {
+				//inBitmap与解码结果不兼容(比如经过了密度缩放), 不复用再解码一次
+				BitmapPool.getInstance().put(options.inBitmap);
+				options.inBitmap = null;
+				bitmap = BitmapFactory.decodeResource(getResources(), resId, options);
+			}
+			if(mMetrics != null) mMetrics.count(TouchMetrics.COUNTER_BITMAP_CONVERSION);
+			return bitmap;
+		} catch (OutOfMemoryError e) {
+			return null;
+		} finally {
+			options.inBitmap = null;
+		}
+	}
+	
 	/**
-	 * 从Drawable中获取Bitmap对象
+	 * 从Drawable中获取Bitmap对象, 非BitmapDrawable转换之后放入共享的BitmapCache, 相同的贴图共用同一个Bitmap
+	 * @param resId Drawable对应的资源id, 没有则传0
 	 * @param drawable
 	 * @return
 	 */
-	private Bitmap drawable2Bitmap(Drawable drawable) {
+	private Bitmap drawable2Bitmap(int resId, Drawable drawable) {
 		try {
 			if (drawable == null) {
 				return null;
@@ -334,15 +807,24 @@ public class SingleTouchView extends View {
 
 			int intrinsicWidth = drawable.getIntrinsicWidth();
 			int intrinsicHeight = drawable.getIntrinsicHeight();
-			Bitmap bitmap = Bitmap.createBitmap(
-					intrinsicWidth <= 0 ? DEFAULT_OTHER_DRAWABLE_WIDTH
-							: intrinsicWidth,
-					intrinsicHeight <= 0 ? DEFAULT_OTHER_DRAWABLE_HEIGHT
-							: intrinsicHeight, Config.ARGB_8888);
+			int width = intrinsicWidth <= 0 ? DEFAULT_OTHER_DRAWABLE_WIDTH : intrinsicWidth;
+			int height = intrinsicHeight <= 0 ? DEFAULT_OTHER_DRAWABLE_HEIGHT : intrinsicHeight;
+			
+			Config config = drawable.getOpacity() == PixelFormat.OPAQUE ? opaqueConfig : Config.ARGB_8888;
+			BitmapCache cache = BitmapCache.getInstance();
+			Object key = BitmapCache.keyOf(resId, drawable);
+			Bitmap bitmap = cache.get(key, width, height, config);
+			if(bitmap != null){
+				return bitmap;
+			}
+			
+			bitmap = Bitmap.createBitmap(width, height, config);
+			if(mMetrics != null) mMetrics.count(TouchMetrics.COUNTER_BITMAP_CONVERSION);
 
 			Canvas canvas = new Canvas(bitmap);
 			drawable.setBounds(0, 0, canvas.getWidth(), canvas.getHeight());
 			drawable.draw(canvas);
+			cache.put(key, width, height, config, bitmap);
 			return bitmap;
 		} catch (OutOfMemoryError e) {
 			return null;
@@ -355,242 +837,595 @@ public class SingleTouchView extends View {
 	 * @param resId
 	 */
 	public void setImageResource(int resId){
+		cancelLoad();
+		releaseTiles();
+		mImageUri = null;
+		if(bitmapReuse && Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB){
+			releaseOwnedBitmap();
+			Bitmap bitmap = decodeReusable(resId);
+			if(bitmap != null){
+				setBitmap(resId, bitmap, true);
+				return;
+			}
+		}
+		
 		Drawable drawable = getContext().getResources().getDrawable(resId);
-		setImageDrawable(drawable);
+		setImageDrawable(resId, drawable);
 	}
 	
-	@Override
-	protected void onDraw(Canvas canvas) {
-		//每次draw之前调整View的位置和大小
-		super.onDraw(canvas);
-		
-		if(mBitmap == null) return;
-		canvas.drawBitmap(mBitmap, matrix, mPaint);
-		
-		
-		//处于可编辑状态才画边框和控制图标
-		if(isEditable){
-			mPath.reset();
-			mPath.moveTo(mLTPoint.x, mLTPoint.y);
-			mPath.lineTo(mRTPoint.x, mRTPoint.y);
-			mPath.lineTo(mRBPoint.x, mRBPoint.y);
-			mPath.lineTo(mLBPoint.x, mLBPoint.y);
-			mPath.lineTo(mLTPoint.x, mLTPoint.y);
-			mPath.lineTo(mRTPoint.x, mRTPoint.y);
-			canvas.drawPath(mPath, mPaint);
-			//画旋转, 缩放图标
-			
-			controlDrawable.setBounds(mControlPoint.x - mDrawableWidth / 2,
-					mControlPoint.y - mDrawableHeight / 2, mControlPoint.x + mDrawableWidth
-							/ 2, mControlPoint.y + mDrawableHeight / 2);
-			controlDrawable.draw(canvas);
-		}
-		
-		adjustLayout();
-		
-		
+	
+	/**
+	 * 在后台线程中加载图片资源，只解码当前显示大小需要的分辨率，加载完成之前显示placeholder
+	 * @param resId
+	 */
+	public void setImageResourceAsync(int resId){
+		cancelLoad();
+		releaseTiles();
+		mImageUri = null;
+		showPlaceholder();
+		mLoadRequest = StickerImageLoader.load(getContext(), resId, getRequiredWidth(), getRequiredHeight(),
+				opaqueConfig, getLoadPool(), mLoadCallback);
 	}
 	
 	
+	/**
+	 * 在后台线程中加载Uri指向的图片，只解码当前显示大小需要的分辨率，加载完成之前显示placeholder
+	 * @param uri content://, file://或者android.resource://
+	 */
+	public void setImageUri(Uri uri){
+		cancelLoad();
+		releaseTiles();
+		showPlaceholder();
+		mImageUri = uri;
+		mLoadRequest = StickerImageLoader.load(getContext(), uri, getRequiredWidth(), getRequiredHeight(),
+				opaqueConfig, getLoadPool(), mLoadCallback);
+	}
+	
 	
 	/**
-	 * 设置Matrix, 强制刷新
+	 * 与setImageResource()一样，开启bitmapReuse之后后台解码也复用BitmapPool
 	 */
-	private void transformDraw(){
-		if(mBitmap == null) return;
-		int bitmapWidth = (int)(mBitmap.getWidth() * mScale);
-		int bitmapHeight = (int)(mBitmap.getHeight()* mScale);
-		computeRect(-framePadding, -framePadding, bitmapWidth + framePadding, bitmapHeight + framePadding, mDegree);
-		
-		//设置缩放比例
-		matrix.setScale(mScale, mScale);
-		//绕着图片中心进行旋转
-		matrix.postRotate(mDegree % 360, bitmapWidth/2, bitmapHeight/2);
-		//设置画该图片的起始点
-		matrix.postTranslate(offsetX + mDrawableWidth/2, offsetY + mDrawableHeight/2);
-		
-		adjustLayout();
+	private BitmapPool getLoadPool(){
+		return bitmapReuse ? BitmapPool.getInstance() : null;
 	}
 	
 	
-	public boolean onTouchEvent(MotionEvent event) {
-		if(!isEditable){
-			return super.onTouchEvent(event);
-		}
+	/**
+	 * 设置很大的图片，比如几千万像素的照片. 底图按照setImageUri()的方式加载，
+	 * 放大到底图的分辨率不够时，只解码可见部分在当前缩放比例下需要的分辨率，画在底图上面.
+	 * API 10以下没有BitmapRegionDecoder，只显示底图
+	 * @param uri content://, file://或者android.resource://
+	 */
+	public void setImageRegionUri(Uri uri){
+		setImageUri(uri);
+		if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD_MR1){
+			mTiles = TiledBitmap.open(getContext(), uri, mTilesCallback);
+		}
+	}
+	
+	
+	private void releaseTiles(){
+		if(mTiles != null){
+			mTiles.release();
+			mTiles = null;
+		}
+	}
+	
+	
+	/**
+	 * 取消正在进行的后台加载
+	 */
+	public void cancelLoad(){
+		if(mLoadRequest != null){
+			mLoadRequest.cancel();
+			mLoadRequest = null;
+		}
+	}
+	
+	
+	/**
+	 * 是否有正在进行的后台加载
+	 * @return
+	 */
+	public boolean isLoading(){
+		return mLoadRequest != null;
+	}
+	
+	
+	/**
+	 * 设置后台加载时显示的图片
+	 * @param placeholder
+	 */
+	public void setPlaceholder(Drawable placeholder){
+		this.placeholder = placeholder;
+	}
+	
+	public Drawable getPlaceholder(){
+		return placeholder;
+	}
+	
+	
+	private void showPlaceholder(){
+		if(placeholder != null){
+			setBitmap(0, drawable2Bitmap(0, placeholder), false, 1, false);
+		}
+	}
+	
+	
+	/**
+	 * 图片在当前的缩放比例下铺满父布局所需要的宽，父布局还没有测量时使用屏幕的宽
+	 */
+	private int getRequiredWidth(){
+		View parent = (View) getParent();
+		int width = parent != null && parent.getWidth() > 0 ? parent.getWidth() : metrics.widthPixels;
+		return (int) (width / Math.max(mEngine.getScale(), MIN_SCALE));
+	}
+	
+	private int getRequiredHeight(){
+		View parent = (View) getParent();
+		int height = parent != null && parent.getHeight() > 0 ? parent.getHeight() : metrics.heightPixels;
+		return (int) (height / Math.max(mEngine.getScale(), MIN_SCALE));
+	}
+	
+	@Override
+	protected void onDraw(Canvas canvas) {
+		super.onDraw(canvas);
+		
+		TouchMetrics metrics = mMetrics;
+		long start = metrics != null ? metrics.begin(TouchMetrics.STAGE_DRAW) : 0;
+		
+		if(mBitmap != null){
+			drawSticker(canvas);
+		}
+		
+		if(metrics != null){
+			metrics.end(TouchMetrics.STAGE_DRAW, start);
+			metrics.onFrame(mStatus != STATUS_INIT || mFling.isRunning() || isAnimating());
+		}
+	}
+	
+	
+	/**
+	 * 画图片，边框和控制图标
+	 * @param canvas
+	 */
+	private void drawSticker(Canvas canvas){
+		int saveCount = canvas.save();
+		canvas.translate(mContentOffsetX, mContentOffsetY);
+		
+		//使用刚好能覆盖当前缩放比例的最小一级图片, 缩放比例相对于mBitmap的像素
+		float bitmapScale = mEngine.getScale() * mBitmapSampleSize;
+		int level = mPyramid.getLevel(bitmapScale);
+		if(level == 0){
+			canvas.drawBitmap(mBitmap, mBitmapMatrix, mBitmapPaint);
+		}else{
+			mDrawMatrix.set(mBitmapMatrix);
+			mDrawMatrix.preScale(mPyramid.getWidthRatio(level), mPyramid.getHeightRatio(level));
+			canvas.drawBitmap(mPyramid.getBitmap(level), mDrawMatrix, mBitmapPaint);
+		}
+		
+		//底图加载完成之后，放大时在上面画原图中可见的部分
+		if(mTiles != null && mLoadRequest == null && getLocalVisibleRect(mVisibleRect)){
+			mVisibleRect.offset(-mContentOffsetX, -mContentOffsetY);
+			mTiles.draw(canvas, mBitmapMatrix, bitmapScale, mBitmap.getWidth(), mBitmap.getHeight(),
+					mVisibleRect, mBitmapPaint);
+		}
+		
+		
+		//处于可编辑状态才画边框和控制图标
+		if(isEditable){
+			mDecoration.draw(canvas, mEngine, mPaint, controlDrawable);
+		}
+		
+		canvas.restoreToCount(saveCount);
+	}
+	
+	
+	
+	/**
+	 * 设置Matrix, 强制刷新
+	 */
+	private void transformDraw(){
+		if(mBitmap == null) return;
+		TouchMetrics metrics = mMetrics;
+		long start = metrics != null ? metrics.begin(TouchMetrics.STAGE_TRANSFORM) : 0;
+		
+		mEngine.setBitmapSize(mBitmap.getWidth() * mBitmapSampleSize, mBitmap.getHeight() * mBitmapSampleSize);
+		mEngine.setFramePadding(framePadding);
+		mEngine.compute();
+		
+		//缩放，绕着图片中心旋转，平移到画该图片的起始点
+		matrix.setValues(mEngine.getMatrixValues());
+		mBitmapMatrix.set(matrix);
+		if(mBitmapSampleSize != 1){
+			mBitmapMatrix.preScale(mBitmapSampleSize, mBitmapSampleSize);
+		}
+		
+		adjustLayout();
+		invalidateQuad();
+		
+		if(metrics != null) metrics.end(TouchMetrics.STAGE_TRANSFORM, start);
+	}
+	
+	
+	/**
+	 * 只刷新变换前后两个四边形的外接矩形合并之后的区域
+	 */
+	private void invalidateQuad(){
+		float[] corners = mEngine.getCorners();
+		float minX = corners[0], maxX = corners[0];
+		float minY = corners[1], maxY = corners[1];
+		for(int i = 2; i < corners.length; i += 2){
+			minX = Math.min(minX, corners[i]);
+			maxX = Math.max(maxX, corners[i]);
+			minY = Math.min(minY, corners[i + 1]);
+			maxY = Math.max(maxY, corners[i + 1]);
+		}
+		
+		//控制图标可能在任意一个点上，边框线宽也会超出四边形
+		int insetX = mDrawableWidth / 2 + frameWidth;
+		int insetY = mDrawableHeight / 2 + frameWidth;
+		mQuadRect.set((int) Math.floor(minX) - insetX + mContentOffsetX,
+				(int) Math.floor(minY) - insetY + mContentOffsetY,
+				(int) Math.ceil(maxX) + insetX + mContentOffsetX,
+				(int) Math.ceil(maxY) + insetY + mContentOffsetY);
+		
+		mDirtyRect.set(mQuadRect);
+		if(!mLastQuadRect.isEmpty()){
+			mDirtyRect.union(mLastQuadRect);
+		}
+		mLastQuadRect.set(mQuadRect);
+		
+		invalidate(mDirtyRect);
+		if(mMetrics != null) mMetrics.count(TouchMetrics.COUNTER_INVALIDATE);
+	}
+	
+	
+	public boolean onTouchEvent(MotionEvent event) {
+		if(mRecordingTrace != null){
+			mRecordingTrace.add(event);
+		}
+		
+		if(!isEditable){
+			return super.onTouchEvent(event);
+		}
+		
+		TouchMetrics metrics = mMetrics;
+		if(metrics == null){
+			return handleTouchEvent(event);
+		}
+		long start = metrics.begin(TouchMetrics.STAGE_TOUCH_EVENT);
+		boolean handled = handleTouchEvent(event);
+		metrics.end(TouchMetrics.STAGE_TOUCH_EVENT, start);
+		return handled;
+	}
+	
+	
+	private boolean handleTouchEvent(MotionEvent event) {
 		switch (event.getAction() ) {
 		case MotionEvent.ACTION_DOWN:
+			stopFling();
+			cancelAnimation();
 			mPreMovePointF.set(event.getX() + mViewPaddingLeft, event.getY() + mViewPaddingTop);
 			
-			mStatus = JudgeStatus(event.getX(), event.getY());
+			mStatus = JudgeStatus(event.getX() - mContentOffsetX, event.getY() - mContentOffsetY);
+			//没有点中图片，事件交给下面的View
+			if(mStatus == STATUS_INIT){
+				return false;
+			}
+			
+			if(gestureLowQuality){
+				enterLowQuality(mStatus);
+			}
+			
+			mDownCenterX = mEngine.getCenterX();
+			mDownCenterY = mEngine.getCenterY();
+			mDownDegree = mEngine.getDegree();
+			mDownScale = mEngine.getScale();
+			mRawCenterX = mDownCenterX;
+			mRawCenterY = mDownCenterY;
+			
+			mFling.resetSamples();
+			mFling.addSample(event.getEventTime(), mEngine);
 
 			break;
 		case MotionEvent.ACTION_UP:
+		case MotionEvent.ACTION_CANCEL:
 			mStatus = STATUS_INIT;
+			//抬起时立即应用还没有处理的变换
+			if(mFramePending){
+				removeCallbacks(mApplyTransformRunnable);
+				applyPendingTransform();
+			}
+			
+			//吸附到对齐线时不再惯性滑动
+			boolean snapped = isSnapped();
+			clearGuides();
+			
+			//抬起时还有速度则继续惯性滑动，保持低质量绘制，滑动结束之后才恢复质量并记录撤销的状态
+			if(event.getAction() == MotionEvent.ACTION_UP && flingEnabled && !snapped
+					&& mFling.start(event.getEventTime())){
+				startFling();
+			}else{
+				exitLowQuality();
+				recordGesture();
+			}
 			break;
 		case MotionEvent.ACTION_MOVE:
-			mCurMovePointF.set(event.getX() + mViewPaddingLeft, event.getY() + mViewPaddingTop);
 			if (mStatus == STATUS_ROTATE_ZOOM) {
-				float scale = 1f;
-				
-				int halfBitmapWidth = mBitmap.getWidth() / 2;
-				int halfBitmapHeight = mBitmap.getHeight() /2 ;
-				
-				//图片某个点到图片中心的距离
-				float bitmapToCenterDistance = FloatMath.sqrt(halfBitmapWidth * halfBitmapWidth + halfBitmapHeight * halfBitmapHeight);
-				
-				//移动的点到图片中心的距离
-				float moveToCenterDistance = distance4PointF(mCenterPoint, mCurMovePointF);
-				
-				//计算缩放比例
-				scale = moveToCenterDistance / bitmapToCenterDistance;
-				
-				
-				//缩放比例的界限判断
-				if (scale <= MIN_SCALE) {
-					scale = MIN_SCALE;
-				} else if (scale >= MAX_SCALE) {
-					scale = MAX_SCALE;
+				//旋转角度与路径有关，依次处理历史点
+				int historySize = event.getHistorySize();
+				for(int i = 0; i < historySize; i++){
+					mCurMovePointF.set(event.getHistoricalX(i) + mViewPaddingLeft, event.getHistoricalY(i) + mViewPaddingTop);
+					mEngine.rotateZoom(mPreMovePointF.x, mPreMovePointF.y, mCurMovePointF.x, mCurMovePointF.y);
+					mPreMovePointF.set(mCurMovePointF);
 				}
 				
+				mCurMovePointF.set(event.getX() + mViewPaddingLeft, event.getY() + mViewPaddingTop);
+				mEngine.rotateZoom(mPreMovePointF.x, mPreMovePointF.y, mCurMovePointF.x, mCurMovePointF.y);
 				
-				// 角度
-				double a = distance4PointF(mCenterPoint, mPreMovePointF);
-				double b = distance4PointF(mPreMovePointF, mCurMovePointF);
-				double c = distance4PointF(mCenterPoint, mCurMovePointF);
-				
-				double cosb = (a * a + c * c - b * b) / (2 * a * c);
-				
-				if (cosb >= 1) {
-					cosb = 1f;
-				}
-				
-				double radian = Math.acos(cosb);
-				float newDegree = (float) radianToDegree(radian);
-				
-				//center -> proMove的向量， 我们使用PointF来实现
-				PointF centerToProMove = new PointF((mPreMovePointF.x - mCenterPoint.x), (mPreMovePointF.y - mCenterPoint.y));
-				
-				//center -> curMove 的向量  
-				PointF centerToCurMove = new PointF((mCurMovePointF.x - mCenterPoint.x), (mCurMovePointF.y - mCenterPoint.y));
-				
-				//向量叉乘结果, 如果结果为负数， 表示为逆时针， 结果为正数表示顺时针
-				float result = centerToProMove.x * centerToCurMove.y - centerToProMove.y * centerToCurMove.x;
-
-				if (result < 0) {
-					newDegree = -newDegree;
-				} 
-				
-				mDegree = mDegree + newDegree;
-				mScale = scale;
-				
-				transformDraw();
+				requestTransform(true);
 			}
 			else if (mStatus == STATUS_DRAG) {
-				// 修改中心点
-				mCenterPoint.x += mCurMovePointF.x - mPreMovePointF.x;
-				mCenterPoint.y += mCurMovePointF.y - mPreMovePointF.y;
-				
-				System.out.println(this + "move = " + mCenterPoint);
+				// 修改中心点, 平移只与最后的位置有关
+				mCurMovePointF.set(event.getX() + mViewPaddingLeft, event.getY() + mViewPaddingTop);
+				if(snapEnabled){
+					mRawCenterX += mCurMovePointF.x - mPreMovePointF.x;
+					mRawCenterY += mCurMovePointF.y - mPreMovePointF.y;
+					snapCenter();
+				}else{
+					mEngine.drag(mCurMovePointF.x - mPreMovePointF.x, mCurMovePointF.y - mPreMovePointF.y);
+				}
 				
-				adjustLayout();
+				requestTransform(false);
 			}
 			
 			mPreMovePointF.set(mCurMovePointF);
+			mFling.addSample(event.getEventTime(), mEngine);
 			break;
 		}
 		return true;
 	}
 	
 	
+	/**
+	 * 手势结束时记录撤销的状态. 手势开始之前的状态可能被setImageDegree()等方法修改过，
+	 * 与当前记录不同时先记录手势开始时的状态，这样撤销能回到手势开始之前
+	 */
+	private void recordGesture(){
+		mHistory.push(mDownCenterX, mDownCenterY, mDownDegree, mDownScale);
+		mHistory.push(mEngine);
+	}
+	
 	
 	/**
-	 * 获取四个点和View的大小
-	 * @param left
-	 * @param top
-	 * @param right
-	 * @param bottom
-	 * @param degree
+	 * 撤销上一次手势
+	 * @return 没有可以撤销的手势或者手势正在进行中返回false
 	 */
-	private void computeRect(int left, int top, int right, int bottom, float degree){
-		Point lt = new Point(left, top);
-		Point rt = new Point(right, top);
-		Point rb = new Point(right, bottom);
-		Point lb = new Point(left, bottom);
-		Point cp = new Point((left + right) / 2, (top + bottom) / 2);
-		mLTPoint = obtainRoationPoint(cp, lt, degree);
-		mRTPoint = obtainRoationPoint(cp, rt, degree);
-		mRBPoint = obtainRoationPoint(cp, rb, degree);
-		mLBPoint = obtainRoationPoint(cp, lb, degree);
-		
-		//计算X坐标最大的值和最小的值
-		int maxCoordinateX = getMaxValue(mLTPoint.x, mRTPoint.x, mRBPoint.x, mLBPoint.x);
-		int minCoordinateX = getMinValue(mLTPoint.x, mRTPoint.x, mRBPoint.x, mLBPoint.x);;
-		
-		mViewWidth = maxCoordinateX - minCoordinateX ;
-		
-		
-		//计算Y坐标最大的值和最小的值
-		int maxCoordinateY = getMaxValue(mLTPoint.y, mRTPoint.y, mRBPoint.y, mLBPoint.y);
-		int minCoordinateY = getMinValue(mLTPoint.y, mRTPoint.y, mRBPoint.y, mLBPoint.y);
-
-		mViewHeight = maxCoordinateY - minCoordinateY ;
-		
-		
-		//View中心点的坐标
-		Point viewCenterPoint = new Point((maxCoordinateX + minCoordinateX) / 2, (maxCoordinateY + minCoordinateY) / 2);
-		
-		offsetX = mViewWidth / 2 - viewCenterPoint.x;
-		offsetY = mViewHeight / 2 - viewCenterPoint.y;
-		
-		
-		
-		int halfDrawableWidth = mDrawableWidth / 2;
-		int halfDrawableHeight = mDrawableHeight /2;
+	public boolean undo(){
+		stopFling();
+		cancelAnimation();
+		if(mStatus != STATUS_INIT || !mHistory.undo(mEngine)) return false;
+		transformDraw();
+		return true;
+	}
+	
+	/**
+	 * 重做撤销的手势
+	 * @return 没有可以重做的手势或者手势正在进行中返回false
+	 */
+	public boolean redo(){
+		stopFling();
+		cancelAnimation();
+		if(mStatus != STATUS_INIT || !mHistory.redo(mEngine)) return false;
+		transformDraw();
+		return true;
+	}
+	
+	public boolean canUndo(){
+		return mHistory.canUndo();
+	}
+	
+	public boolean canRedo(){
+		return mHistory.canRedo();
+	}
+	
+	/**
+	 * 清空撤销，重做记录
+	 */
+	public void clearHistory(){
+		mHistory.clear();
+	}
+	
+	
+	/**
+	 * 以动画的方式移动到指定的中心点，角度和缩放比例，每一帧三者一起只计算一次Matrix和布局.
+	 * 所有贴图的动画由同一个帧回调驱动
+	 * @param center 相对于父布局的中心点
+	 * @param degree 角度按数值插值，比如从350到10会反向转过340度
+	 * @param scale
+	 * @param duration 毫秒
+	 * @param interpolator 为null时使用DecelerateInterpolator
+	 */
+	public void animateTo(PointF center, float degree, float scale, long duration, Interpolator interpolator){
+		stopFling();
+		if(mAnimation == null){
+			mAnimation = new TransformAnimator.Animation(mEngine, new TransformAnimator.Callback() {
+				
+				@Override
+				public void onAnimationFrame(TransformAnimator.Animation animation, boolean finished) {
+					transformDraw();
+				}
+			});
+		}
+		mCenterInitialized = true;
+		mAnimation.setTarget(center.x, center.y, degree, scale, duration, interpolator);
+		TransformAnimator.getInstance().start(mAnimation);
+	}
+	
+	/**
+	 * 取消animateTo()的动画，停在当前的状态
+	 */
+	public void cancelAnimation(){
+		if(mAnimation != null){
+			TransformAnimator.getInstance().cancel(mAnimation);
+		}
+	}
+	
+	public boolean isAnimating(){
+		return mAnimation != null && mAnimation.isRunning();
+	}
+	
+	
+	private void startFling(){
+		if(mFlingAnimation == null){
+			mFlingAnimation = new TransformAnimator.Animation(mEngine, new TransformAnimator.Callback() {
+				
+				@Override
+				public void onAnimationFrame(TransformAnimator.Animation animation, boolean finished) {
+					if(mFlingRotateZoom){
+						transformDraw();
+					}else{
+						adjustLayout();
+					}
+					if(finished){
+						exitLowQuality();
+						recordGesture();
+					}
+				}
+			});
+			mFlingAnimation.setFling(mFling);
+		}
+		mFlingRotateZoom = mFling.isRotateZoom();
+		TransformAnimator.getInstance().start(mFlingAnimation);
+	}
+	
+	
+	/**
+	 * 停止惯性滑动，停在当前的位置
+	 */
+	public void stopFling(){
+		if(!mFling.isRunning()) return;
+		mFling.stop();
+		TransformAnimator.getInstance().cancel(mFlingAnimation);
+		exitLowQuality();
+		recordGesture();
+	}
+	
+	
+	/**
+	 * 手势开始时降低绘制质量。拖动时图片内容不变，提升为硬件层之后每帧只需移动该层；
+	 * 旋转缩放时内容每帧都在变化，硬件层反而要每帧重建，所以只关闭图片过滤
+	 * @param status
+	 */
+	private void enterLowQuality(int status){
+		if(status == STATUS_DRAG){
+			if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB && isHardwareAccelerated()){
+				mSavedLayerType = ViewCompat.getLayerType(this);
+				ViewCompat.setLayerType(this, ViewCompat.LAYER_TYPE_HARDWARE, null);
+				mLayerPromoted = true;
+				mLowQuality = true;
+			}
+		}else if(status == STATUS_ROTATE_ZOOM){
+			mBitmapPaint.setFilterBitmap(false);
+			mBitmapPaint.setAntiAlias(false);
+			mLowQuality = true;
+		}
+	}
+	
+	
+	/**
+	 * 手势结束，恢复layer类型和图片过滤，以完整质量重画一次
+	 */
+	private void exitLowQuality(){
+		if(!mLowQuality) return;
+		mLowQuality = false;
 		
-		//将Bitmap的四个点的X的坐标移动offsetX + halfDrawableWidth
-		mLTPoint.x += (offsetX + halfDrawableWidth);
-		mRTPoint.x += (offsetX + halfDrawableWidth);
-		mRBPoint.x += (offsetX + halfDrawableWidth);
-		mLBPoint.x += (offsetX + halfDrawableWidth);
-
-		//将Bitmap的四个点的Y坐标移动offsetY + halfDrawableHeight
-		mLTPoint.y += (offsetY + halfDrawableHeight);
-		mRTPoint.y += (offsetY + halfDrawableHeight);
-		mRBPoint.y += (offsetY + halfDrawableHeight);
-		mLBPoint.y += (offsetY + halfDrawableHeight);
+		if(mLayerPromoted){
+			mLayerPromoted = false;
+			ViewCompat.setLayerType(this, mSavedLayerType, null);
+		}
+		mBitmapPaint.setFilterBitmap(true);
+		mBitmapPaint.setAntiAlias(true);
+		invalidate();
+	}
+	
+	
+	/**
+	 * 请求应用变换，coalesceTouch为true时合并到下一帧统一处理
+	 * @param compute 是否需要重新计算Matrix
+	 */
+	private void requestTransform(boolean compute){
+		mPendingCompute |= compute;
+		if(!coalesceTouch){
+			applyPendingTransform();
+			return;
+		}
 		
-		mControlPoint = LocationToPoint(controlLocation);
+		if(!mFramePending){
+			mFramePending = true;
+			ViewCompat.postOnAnimation(this, mApplyTransformRunnable);
+		}
 	}
 	
 	
 	/**
-	 * 根据位置判断控制图标处于那个点
-	 * @return
+	 * 应用合并之后的变换
 	 */
-	private Point LocationToPoint(int location){
-		switch(location){
-		case LEFT_TOP:
-			return mLTPoint;
-		case RIGHT_TOP:
-			return mRTPoint;
-		case RIGHT_BOTTOM:
-			return mRBPoint;
-		case LEFT_BOTTOM:
-			return mLBPoint;
+	private void applyPendingTransform(){
+		mFramePending = false;
+		if(mPendingCompute){
+			transformDraw();
+		}else{
+			adjustLayout();
 		}
-		return mLTPoint;
+		mPendingCompute = false;
 	}
 	
 	
+	@Override
+	protected void onAttachedToWindow() {
+		super.onAttachedToWindow();
+		//放在AlignmentGuideLayout中并且没有设置索引时，与布局中的其他贴图共用布局的索引
+		AlignmentGuideLayout layout = getGuideLayout();
+		if(layout != null && mAlignmentIndex == null){
+			setAlignmentIndex(layout.getAlignmentIndex());
+		}
+	}
+	
+	
+	@Override
+	protected void onDetachedFromWindow() {
+		super.onDetachedFromWindow();
+		clearGuides();
+		if(mFramePending){
+			removeCallbacks(mApplyTransformRunnable);
+			applyPendingTransform();
+		}
+		stopFling();
+		cancelAnimation();
+		cancelLoad();
+		if(mTiles != null){
+			mTiles.clearTiles();
+		}
+		if(mAlignmentIndex != null && mAlignmentEntry != null){
+			mAlignmentIndex.remove(mAlignmentEntry);
+		}
+	}
+	
+	
+	
 	/**
 	 * 获取变长参数最大的值
 	 * @param array
 	 * @return
 	 */
 	public int getMaxValue(Integer...array){
-		List<Integer> list = Arrays.asList(array);
-		Collections.sort(list);
-		return list.get(list.size() -1);
+		int max = array[0];
+		for(int i = 1; i < array.length; i++){
+			max = Math.max(max, array[i]);
+		}
+		return max;
 	}
 	
 	
@@ -600,9 +1435,11 @@ public class SingleTouchView extends View {
 	 * @return
 	 */
 	public int getMinValue(Integer...array){
-		List<Integer> list = Arrays.asList(array);
-		Collections.sort(list);
-		return list.get(0);
+		int min = array[0];
+		for(int i = 1; i < array.length; i++){
+			min = Math.min(min, array[i]);
+		}
+		return min;
 	}
 	
 	
@@ -615,10 +1452,26 @@ public class SingleTouchView extends View {
 	 * @return
 	 */
 	public static Point obtainRoationPoint(Point center, Point source, float degree) {
+		if(source.x == center.x && source.y == center.y){
+			return center;
+		}
+		Point resultPoint = new Point();
+		obtainRoationPoint(center, source, degree, resultPoint);
+		return resultPoint;
+	}
+	
+	
+	/**
+	 * 获取旋转某个角度之后的点，结果写入out, 不分配新的对象
+	 * @param center
+	 * @param source
+	 * @param degree
+	 * @param out 可以与source是同一个对象
+	 */
+	public static void obtainRoationPoint(Point center, Point source, float degree, Point out) {
 		//两者之间的距离
-		Point disPoint = new Point();
-		disPoint.x = source.x - center.x;
-		disPoint.y = source.y - center.y;
+		int disX = source.x - center.x;
+		int disY = source.y - center.y;
 		
 		//没旋转之前的弧度
 		double originRadian = 0;
@@ -632,31 +1485,29 @@ public class SingleTouchView extends View {
 		//旋转之后的弧度
 		double resultRadian = 0;
 		
-		//经过旋转之后点的坐标
-		Point resultPoint = new Point();
-		
-		double distance = Math.sqrt(disPoint.x * disPoint.x + disPoint.y * disPoint.y);
-		if (disPoint.x == 0 && disPoint.y == 0) {
-			return center;
+		double distance = Math.sqrt(disX * disX + disY * disY);
+		if (disX == 0 && disY == 0) {
+			out.set(center.x, center.y);
+			return;
 			// 第一象限
-		} else if (disPoint.x >= 0 && disPoint.y >= 0) {
+		} else if (disX >= 0 && disY >= 0) {
 			// 计算与x正方向的夹角
-			originRadian = Math.asin(disPoint.y / distance);
+			originRadian = Math.asin(disY / distance);
 			
 			// 第二象限
-		} else if (disPoint.x < 0 && disPoint.y >= 0) {
+		} else if (disX < 0 && disY >= 0) {
 			// 计算与x正方向的夹角
-			originRadian = Math.asin(Math.abs(disPoint.x) / distance);
+			originRadian = Math.asin(Math.abs(disX) / distance);
 			originRadian = originRadian + Math.PI / 2;
 			
 			// 第三象限
-		} else if (disPoint.x < 0 && disPoint.y < 0) {
+		} else if (disX < 0 && disY < 0) {
 			// 计算与x正方向的夹角
-			originRadian = Math.asin(Math.abs(disPoint.y) / distance);
+			originRadian = Math.asin(Math.abs(disY) / distance);
 			originRadian = originRadian + Math.PI;
-		} else if (disPoint.x >= 0 && disPoint.y < 0) {
+		} else if (disX >= 0 && disY < 0) {
 			// 计算与x正方向的夹角
-			originRadian = Math.asin(disPoint.x / distance);
+			originRadian = Math.asin(disX / distance);
 			originRadian = originRadian + Math.PI * 3 / 2;
 		}
 		
@@ -667,12 +1518,8 @@ public class SingleTouchView extends View {
 		// 角度转弧度
 		resultRadian = degreeToRadian(resultDegree);
 		
-		resultPoint.x = (int) Math.round(distance * Math.cos(resultRadian));
-		resultPoint.y = (int) Math.round(distance * Math.sin(resultRadian));
-		resultPoint.x += center.x;
-		resultPoint.y += center.y;
-
-		return resultPoint;
+		out.x = (int) Math.round(distance * Math.cos(resultRadian)) + center.x;
+		out.y = (int) Math.round(distance * Math.sin(resultRadian)) + center.y;
 	}
 
 	/**
@@ -681,7 +1528,7 @@ public class SingleTouchView extends View {
 	 * @return
 	 */
 	public static double radianToDegree(double radian) {
-		return radian * 180 / Math.PI;
+		return TransformEngine.radianToDegree(radian);
 	}
 
 	
@@ -691,34 +1538,103 @@ public class SingleTouchView extends View {
 	 * @return
 	 */
 	public static double degreeToRadian(double degree) {
-		return degree * Math.PI / 180;
+		return TransformEngine.degreeToRadian(degree);
 	}
 	
 	/**
-	 * 根据点击的位置判断是否点中控制旋转，缩放的图片， 初略的计算
+	 * 根据点击的位置判断是否点中控制旋转，缩放的图片，或者点中了图片的不透明区域
 	 * @param x
 	 * @param y
-	 * @return
+	 * @return 都没有点中返回STATUS_INIT
 	 */
 	private int JudgeStatus(float x, float y){
-		PointF touchPoint = new PointF(x, y);
-		PointF controlPointF = new PointF(mControlPoint);
+		TouchMetrics metrics = mMetrics;
+		long start = metrics != null ? metrics.begin(TouchMetrics.STAGE_JUDGE_STATUS) : 0;
 		
-		//点击的点到控制旋转，缩放点的距离
-		float distanceToControl = distance4PointF(touchPoint, controlPointF);
-		
-		//如果两者之间的距离小于 控制图标的宽度，高度的最小值，则认为点中了控制图标
-		if(distanceToControl < Math.min(mDrawableWidth/2, mDrawableHeight/2)){
-			return STATUS_ROTATE_ZOOM;
+		//如果点击的点到控制图标中心的距离小于控制图标的宽度，高度的最小值，则认为点中了控制图标
+		int status;
+		if(mEngine.hitControl(x, y)){
+			status = STATUS_ROTATE_ZOOM;
+		}else if(!preciseHitTest || hitImage(x, y)){
+			status = STATUS_DRAG;
+		}else{
+			status = STATUS_INIT;
 		}
 		
-		return STATUS_DRAG;
+		if(metrics != null) metrics.end(TouchMetrics.STAGE_JUDGE_STATUS, start);
+		return status;
+	}
+	
+	
+	/**
+	 * 通过缓存的逆矩阵把点映射回图片坐标，图片和外边框之间的留白以及外边框本身算作点中，
+	 * 图片内部再查询透明度掩码
+	 * @param x 相对于View而言
+	 * @param y
+	 * @return
+	 */
+	private boolean hitImage(float x, float y){
+		if(mBitmap == null) return false;
+		mEngine.mapToBitmap(x, y, mHitPoint);
+		float bitmapX = mHitPoint[0];
+		float bitmapY = mHitPoint[1];
+		int width = mEngine.getBitmapWidth();
+		int height = mEngine.getBitmapHeight();
+		if(bitmapX < 0 || bitmapY < 0 || bitmapX >= width || bitmapY >= height){
+			//外边框到图片的距离在图片坐标中需要除以缩放比例
+			float margin = (framePadding + frameWidth / 2f) / Math.max(mEngine.getScale(), MIN_SCALE);
+			return bitmapX >= -margin && bitmapY >= -margin && bitmapX < width + margin && bitmapY < height + margin;
+		}
 		
+		if(mAlphaMask == null){
+			mAlphaMask = AlphaMask.obtain(mBitmap);
+		}
+		return mAlphaMask.isOpaque(bitmapX / mBitmapSampleSize, bitmapY / mBitmapSampleSize);
+	}
+	
+	
+	public Bitmap getImageBitmap() {
+		return mBitmap;
 	}
 	
+	/**
+	 * 当前图片的资源id，直接设置Bitmap, Drawable或者Uri时为0
+	 */
+	public int getImageResourceId() {
+		return mImageResId;
+	}
+	
+	public int getImageId() {
+		return mImageId;
+	}
+	
+	/**
+	 * 设置调用者定义的图片标识，saveSnapshot()时保存，restoreSnapshot()时用来找回图片.
+	 * 需要是跨版本稳定的值，不要使用资源id. 更换图片时不会自动清除，需要同时更新
+	 * @param imageId 0表示没有
+	 */
+	public void setImageId(int imageId) {
+		this.mImageId = imageId;
+	}
+	
+	/**
+	 * 通过setImageUri()设置的图片，其他方式设置时为null
+	 */
+	public Uri getImageUri() {
+		return mImageUri;
+	}
+	
+	/**
+	 * 获取getImageBitmap()到父布局坐标系的矩阵，可以用来在离屏Canvas上重现该图片
+	 * @param out
+	 */
+	public void getImageMatrix(Matrix out) {
+		out.set(mBitmapMatrix);
+		out.postTranslate(mViewPaddingLeft + mContentOffsetX, mViewPaddingTop + mContentOffsetY);
+	}
 	
 	public float getImageDegree() {
-		return mDegree;
+		return mEngine.getDegree();
 	}
 
 	/**
@@ -726,14 +1642,14 @@ public class SingleTouchView extends View {
 	 * @param degree
 	 */
 	public void setImageDegree(float degree) {
-		if(this.mDegree != degree){
-			this.mDegree = degree;
+		if(mEngine.getDegree() != degree){
+			mEngine.setDegree(degree);
 			transformDraw();
 		}
 	}
 
 	public float getImageScale() {
-		return mScale;
+		return mEngine.getScale();
 	}
 
 	/**
@@ -741,8 +1657,8 @@ public class SingleTouchView extends View {
 	 * @param scale
 	 */
 	public void setImageScale(float scale) {
-		if(this.mScale != scale){
-			this.mScale = scale;
+		if(mEngine.getScale() != scale){
+			mEngine.setScale(scale);
 			transformDraw();
 		};
 	}
@@ -760,6 +1676,8 @@ public class SingleTouchView extends View {
 		this.controlDrawable = drawable;
 		mDrawableWidth = drawable.getIntrinsicWidth();
 		mDrawableHeight = drawable.getIntrinsicHeight();
+		mEngine.setControlSize(mDrawableWidth, mDrawableHeight);
+		mDecoration.invalidate();
 		transformDraw();
 	}
 
@@ -783,6 +1701,7 @@ public class SingleTouchView extends View {
 			return;
 		this.frameColor = frameColor;
 		mPaint.setColor(frameColor);
+		mDecoration.invalidate();
 		invalidate();
 	}
 
@@ -794,7 +1713,8 @@ public class SingleTouchView extends View {
 		if(this.frameWidth == frameWidth) 
 			return;
 		this.frameWidth = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, frameWidth, metrics);
-		mPaint.setStrokeWidth(frameWidth);
+		mPaint.setStrokeWidth(this.frameWidth);
+		mDecoration.invalidate();
 		invalidate();
 	}
 	
@@ -806,6 +1726,7 @@ public class SingleTouchView extends View {
 		if(this.controlLocation == location)
 			return;
 		this.controlLocation = location;
+		mEngine.setControlLocation(location);
 		transformDraw();
 	}
 
@@ -816,6 +1737,7 @@ public class SingleTouchView extends View {
 	
 
 	public PointF getCenterPoint() {
+		mCenterPoint.set(mEngine.getCenterX(), mEngine.getCenterY());
 		return mCenterPoint;
 	}
 
@@ -824,11 +1746,499 @@ public class SingleTouchView extends View {
 	 * @param mCenterPoint
 	 */
 	public void setCenterPoint(PointF mCenterPoint) {
-		this.mCenterPoint = mCenterPoint;
+		mEngine.setCenter(mCenterPoint.x, mCenterPoint.y);
+		mCenterInitialized = true;
 		adjustLayout();
 	}
 	
 
+	public int getRenderMode() {
+		return renderMode;
+	}
+	
+	/**
+	 * 设置平移，旋转，缩放时调整View的方式, 只能选择RENDER_MODE_LAYOUT，RENDER_MODE_TRANSLATION
+	 * @param renderMode
+	 */
+	public void setRenderMode(int renderMode) {
+		if(this.renderMode == renderMode)
+			return;
+		this.renderMode = renderMode;
+		
+		if(!isTranslationMode()){
+			ViewCompat.setTranslationX(this, 0);
+			ViewCompat.setTranslationY(this, 0);
+		}
+		adjustLayout();
+		invalidate();
+	}
+	
+
+	public boolean isCoalesceTouch() {
+		return coalesceTouch;
+	}
+	
+	/**
+	 * 设置是否把一帧之内的多个ACTION_MOVE合并，每帧只调整一次Matrix和布局
+	 * @param coalesceTouch
+	 */
+	public void setCoalesceTouch(boolean coalesceTouch) {
+		this.coalesceTouch = coalesceTouch;
+	}
+	
+
+	public boolean isPreciseHitTest() {
+		return preciseHitTest;
+	}
+	
+	/**
+	 * 设置是否只有点中图片的不透明区域(或者外边框和留白)才开始拖动，默认为false, 点中View的任意位置都会拖动
+	 * @param preciseHitTest
+	 */
+	public void setPreciseHitTest(boolean preciseHitTest) {
+		this.preciseHitTest = preciseHitTest;
+	}
+	
+
+	public Config getOpaqueConfig() {
+		return opaqueConfig;
+	}
+	
+	/**
+	 * 设置不透明图片使用的Config, 比如RGB_565可以节省一半内存, 之后设置的图片生效.
+	 * 只对Drawable转换的图片和开启复用时解码的jpeg图片有效，透明的图片总是使用ARGB_8888
+	 * @param opaqueConfig
+	 */
+	public void setOpaqueConfig(Config opaqueConfig) {
+		this.opaqueConfig = opaqueConfig;
+	}
+	
+	public boolean isBitmapReuse() {
+		return bitmapReuse;
+	}
+	
+	/**
+	 * 设置setImageResource()是否自己解码位图资源，并通过BitmapPool复用之前图片(包括缩小版本)的内存，
+	 * 适合频繁切换贴图的界面. 开启之后自己解码的图片在更换时会被放回复用池，不要在别处持有getImageBitmap()的结果.
+	 * 需要API 11以上
+	 * @param bitmapReuse
+	 */
+	public void setBitmapReuse(boolean bitmapReuse) {
+		this.bitmapReuse = bitmapReuse;
+		mPyramid.setBitmapPool(bitmapReuse ? BitmapPool.getInstance() : null);
+	}
+	
+
+	public boolean isFlingEnabled() {
+		return flingEnabled;
+	}
+	
+	/**
+	 * 设置抬起之后是否继续惯性滑动(平移，旋转，缩放)
+	 * @param flingEnabled
+	 */
+	public void setFlingEnabled(boolean flingEnabled) {
+		this.flingEnabled = flingEnabled;
+		if(!flingEnabled){
+			stopFling();
+		}
+	}
+	
+	/**
+	 * 设置惯性滑动的摩擦系数，越大停得越快，默认{@link TransformFling#DEFAULT_FRICTION}
+	 * @param friction
+	 */
+	public void setFlingFriction(float friction) {
+		mFling.setFriction(friction);
+	}
+	
+	
+	/**
+	 * 拖动时按照没有吸附的中心点查找x, y方向最近的吸附目标，把中心点偏移到吸附的位置.
+	 * 吸附的是旋转之后四个顶点的外接矩形(与坐标轴平行)的边和中心，不是旋转之后的边本身:
+	 * 倾斜的边与水平，竖直的对齐线不平行，只能有一个顶点落在对齐线上
+	 */
+	private void snapCenter(){
+		computeHalfSize();
+		View parent = (View) getParent();
+		findSnap(AlignmentIndex.AXIS_X, mRawCenterX, mHalfWidth, parent != null ? parent.getWidth() : 0);
+		float offsetX = mSnapOffset;
+		mGuideX = mSnapLine;
+		findSnap(AlignmentIndex.AXIS_Y, mRawCenterY, mHalfHeight, parent != null ? parent.getHeight() : 0);
+		float offsetY = mSnapOffset;
+		mGuideY = mSnapLine;
+		
+		mEngine.setCenter(mRawCenterX + offsetX, mRawCenterY + offsetY);
+		
+		AlignmentGuideLayout layout = getGuideLayout();
+		if(layout != null){
+			layout.setGuides(mGuideX, mGuideY);
+		}
+	}
+	
+	
+	/**
+	 * 在一个方向上查找两条边和中心线最近的吸附目标，结果放在mSnapOffset, mSnapLine中
+	 * @param axis
+	 * @param center 没有吸附的中心
+	 * @param halfSize 旋转之后外接矩形的一半宽(高)
+	 * @param parentSize 父布局的宽(高)
+	 */
+	private void findSnap(int axis, float center, float halfSize, int parentSize){
+		mSnapOffset = 0;
+		mSnapLine = Float.NaN;
+		for(int i = -1; i <= 1; i++){
+			float line = center + i * halfSize;
+			if(parentSize > 0){
+				considerSnap(line, parentSize / 2f);
+			}
+			if(snapGrid > 0){
+				considerSnap(line, Math.round(line / snapGrid) * snapGrid);
+			}
+			if(mAlignmentIndex != null){
+				considerSnap(line, mAlignmentIndex.findNearest(axis, line, snapTolerance, mAlignmentEntry));
+			}
+		}
+	}
+	
+	
+	private void considerSnap(float line, float target){
+		if(Float.isNaN(target)) return;
+		float offset = target - line;
+		if(Math.abs(offset) > snapTolerance) return;
+		if(Float.isNaN(mSnapLine) || Math.abs(offset) < Math.abs(mSnapOffset)){
+			mSnapOffset = offset;
+			mSnapLine = target;
+		}
+	}
+	
+	
+	/**
+	 * 旋转之后四个点的外接矩形的一半宽高，放在mHalfWidth, mHalfHeight中
+	 */
+	private void computeHalfSize(){
+		float[] corners = mEngine.getCorners();
+		float minX = corners[0], maxX = corners[0];
+		float minY = corners[1], maxY = corners[1];
+		for(int i = 2; i < corners.length; i += 2){
+			minX = Math.min(minX, corners[i]);
+			maxX = Math.max(maxX, corners[i]);
+			minY = Math.min(minY, corners[i + 1]);
+			maxY = Math.max(maxY, corners[i + 1]);
+		}
+		mHalfWidth = (maxX - minX) / 2;
+		mHalfHeight = (maxY - minY) / 2;
+	}
+	
+	
+	private boolean isSnapped(){
+		return !Float.isNaN(mGuideX) || !Float.isNaN(mGuideY);
+	}
+	
+	
+	private void clearGuides(){
+		if(isSnapped()){
+			mGuideX = Float.NaN;
+			mGuideY = Float.NaN;
+			AlignmentGuideLayout layout = getGuideLayout();
+			if(layout != null){
+				layout.clearGuides();
+			}
+		}
+	}
+	
+	
+	/**
+	 * 画对齐线的父布局，父布局不是AlignmentGuideLayout时返回null, 这时只吸附不画对齐线
+	 */
+	private AlignmentGuideLayout getGuideLayout(){
+		ViewParent parent = getParent();
+		return parent instanceof AlignmentGuideLayout ? (AlignmentGuideLayout) parent : null;
+	}
+	
+	
+	/**
+	 * 更新该贴图在对齐线索引中的外接矩形(父布局坐标)
+	 */
+	private void updateAlignmentEntry(){
+		if(mAlignmentIndex == null) return;
+		
+		computeHalfSize();
+		float halfWidth = mHalfWidth;
+		float halfHeight = mHalfHeight;
+		float centerX = mEngine.getCenterX();
+		float centerY = mEngine.getCenterY();
+		
+		if(mAlignmentEntry == null){
+			mAlignmentEntry = mAlignmentIndex.insert(centerX - halfWidth, centerY - halfHeight,
+					centerX + halfWidth, centerY + halfHeight);
+		}else{
+			mAlignmentIndex.update(mAlignmentEntry, centerX - halfWidth, centerY - halfHeight,
+					centerX + halfWidth, centerY + halfHeight);
+		}
+	}
+	
+	
+	public boolean isSnapEnabled() {
+		return snapEnabled;
+	}
+	
+	/**
+	 * 设置拖动时是否吸附到父布局中心，网格(setSnapGrid())和同一个AlignmentIndex中其他贴图的边和中心，
+	 * 父布局是AlignmentGuideLayout时吸附时由它画出贯穿整个布局的对齐线. 
+	 * 贴图旋转之后按四个顶点的外接矩形(与坐标轴平行)吸附，而不是旋转之后的边
+	 * @param snapEnabled
+	 */
+	public void setSnapEnabled(boolean snapEnabled) {
+		this.snapEnabled = snapEnabled;
+		if(!snapEnabled){
+			clearGuides();
+		}
+	}
+	
+	/**
+	 * 设置吸附范围，单位是dip
+	 * @param tolerance
+	 */
+	public void setSnapTolerance(int tolerance) {
+		this.snapTolerance = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, tolerance, metrics);
+	}
+	
+	/**
+	 * 设置吸附网格的大小，单位是dip, 0表示不吸附到网格
+	 * @param grid
+	 */
+	public void setSnapGrid(int grid) {
+		this.snapGrid = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, grid, metrics);
+	}
+	
+	public AlignmentIndex getAlignmentIndex() {
+		return mAlignmentIndex;
+	}
+	
+	/**
+	 * 设置与同一个父布局中其他贴图共用的对齐线索引，拖动时可以吸附到其他贴图的边和中心. 
+	 * 每个贴图变换之后只更新自己在索引中的位置，查找吸附目标不需要遍历所有贴图. 
+	 * 放在AlignmentGuideLayout中时默认使用布局的索引
+	 * @param index 传null从原来的索引中移除
+	 */
+	public void setAlignmentIndex(AlignmentIndex index) {
+		if(mAlignmentIndex == index) return;
+		if(mAlignmentIndex != null && mAlignmentEntry != null){
+			mAlignmentIndex.remove(mAlignmentEntry);
+		}
+		mAlignmentIndex = index;
+		mAlignmentEntry = null;
+		if(mBitmap != null){
+			updateAlignmentEntry();
+		}
+	}
+	
+
+	public boolean isGestureLowQuality() {
+		return gestureLowQuality;
+	}
+	
+	/**
+	 * 设置手势进行中是否降低绘制质量(拖动时使用硬件层，旋转缩放时关闭图片过滤)
+	 * @param gestureLowQuality
+	 */
+	public void setGestureLowQuality(boolean gestureLowQuality) {
+		this.gestureLowQuality = gestureLowQuality;
+		if(!gestureLowQuality){
+			exitLowQuality();
+		}
+	}
+	
+
+	/**
+	 * 设置旋转时的角度吸附，比如setDegreeSnap(45, 5)在离0, 45, 90...小于5度时吸附
+	 * @param step 吸附的间隔角度，小于等于0关闭吸附
+	 * @param tolerance 吸附范围，离开吸附需要超过该范围的{@link TransformEngine#SNAP_HYSTERESIS}倍
+	 */
+	public void setDegreeSnap(float step, float tolerance) {
+		mEngine.setDegreeSnap(step, tolerance);
+	}
+	
+	/**
+	 * 设置缩放时的比例吸附，比如setScaleSnap(0.5f, 0.05f)在离0.5, 1.0, 1.5...小于0.05时吸附
+	 * @param step 吸附的间隔，小于等于0关闭吸附
+	 * @param tolerance 吸附范围，离开吸附需要超过该范围的{@link TransformEngine#SNAP_HYSTERESIS}倍
+	 */
+	public void setScaleSnap(float step, float tolerance) {
+		mEngine.setScaleSnap(step, tolerance);
+	}
+	
+
+	public TouchMetrics getMetrics() {
+		return mMetrics;
+	}
+	
+	/**
+	 * 设置各阶段耗时统计，传null关闭统计
+	 * @param metrics
+	 */
+	public void setMetrics(TouchMetrics metrics) {
+		this.mMetrics = metrics;
+	}
+	
+	
+	/**
+	 * 开始录制onTouchEvent收到的事件，同时记录当前的状态，录制结果可以通过GestureReplayer回放
+	 * @return 录制中的手势
+	 */
+	public GestureTrace startGestureRecording() {
+		GestureTrace trace = new GestureTrace();
+		StickerSnapshot snapshot = new StickerSnapshot();
+		saveSnapshot(snapshot);
+		trace.setInitialState(snapshot);
+		mRecordingTrace = trace;
+		return trace;
+	}
+	
+	/**
+	 * 停止录制
+	 * @return 录制的手势，没有在录制时返回null
+	 */
+	public GestureTrace stopGestureRecording() {
+		GestureTrace trace = mRecordingTrace;
+		mRecordingTrace = null;
+		return trace;
+	}
+	
+
+	/**
+	 * 保存当前的状态到snapshot中，图片只保存setImageId()设置的标识
+	 * @param snapshot
+	 */
+	public void saveSnapshot(StickerSnapshot snapshot) {
+		snapshot.centerX = mEngine.getCenterX();
+		snapshot.centerY = mEngine.getCenterY();
+		snapshot.degree = mEngine.getDegree();
+		snapshot.scale = mEngine.getScale();
+		snapshot.imageId = mImageId;
+		snapshot.controlLocation = controlLocation;
+		snapshot.editable = isEditable;
+		snapshot.framePadding = framePadding / metrics.density;
+		snapshot.frameWidth = frameWidth / metrics.density;
+		snapshot.frameColor = frameColor;
+	}
+	
+	/**
+	 * 从snapshot中恢复状态，保留当前的图片
+	 * @param snapshot
+	 */
+	public void restoreSnapshot(StickerSnapshot snapshot) {
+		restoreSnapshot(snapshot, null);
+	}
+	
+	/**
+	 * 从snapshot中恢复状态，图片标识与当前不同时通过resolver找回图片
+	 * @param snapshot
+	 * @param resolver 根据imageId提供图片，为null或者返回null时保留当前的图片
+	 */
+	public void restoreSnapshot(StickerSnapshot snapshot, StickerView.BitmapResolver resolver) {
+		framePadding = Math.round(TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, snapshot.framePadding, metrics));
+		frameWidth = Math.round(TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, snapshot.frameWidth, metrics));
+		frameColor = snapshot.frameColor;
+		mPaint.setColor(frameColor);
+		mPaint.setStrokeWidth(frameWidth);
+		mDecoration.invalidate();
+		
+		controlLocation = snapshot.controlLocation;
+		mEngine.setControlLocation(controlLocation);
+		isEditable = snapshot.editable;
+		
+		mEngine.setCenter(snapshot.centerX, snapshot.centerY);
+		mEngine.setDegree(snapshot.degree);
+		mEngine.setScale(snapshot.scale);
+		mCenterInitialized = true;
+		
+		Bitmap bitmap = null;
+		if(resolver != null && snapshot.imageId != 0 && snapshot.imageId != mImageId){
+			bitmap = resolver.getBitmap(snapshot.imageId);
+		}
+		if(bitmap != null){
+			setImageBitamp(bitmap);
+			mImageId = snapshot.imageId;
+		}else{
+			transformDraw();
+		}
+		invalidate();
+	}
+	
+	
+	@Override
+	public Parcelable onSaveInstanceState() {
+		Parcelable superState = super.onSaveInstanceState();
+		StickerSnapshot snapshot = new StickerSnapshot();
+		saveSnapshot(snapshot);
+		return new SavedState(superState, snapshot.toByteArray(), mImageResId);
+	}
+	
+	@Override
+	public void onRestoreInstanceState(Parcelable state) {
+		if(!(state instanceof SavedState)){
+			super.onRestoreInstanceState(state);
+			return;
+		}
+		
+		SavedState savedState = (SavedState) state;
+		super.onRestoreInstanceState(savedState.getSuperState());
+		
+		//同一次安装中资源id不变，实例状态可以直接用它恢复图片
+		if(savedState.imageResId != 0 && savedState.imageResId != mImageResId){
+			setImageResource(savedState.imageResId);
+		}
+		StickerSnapshot snapshot = StickerSnapshot.fromByteArray(savedState.data);
+		if(snapshot != null){
+			restoreSnapshot(snapshot);
+			mImageId = snapshot.imageId;
+		}
+	}
+	
+	
+	/**
+	 * 保存在Parcel中的状态，内容是StickerSnapshot的二进制格式和图片的资源id
+	 */
+	static class SavedState extends BaseSavedState {
+		byte[] data;
+		int imageResId;
+		
+		SavedState(Parcelable superState, byte[] data, int imageResId) {
+			super(superState);
+			this.data = data;
+			this.imageResId = imageResId;
+		}
+		
+		private SavedState(Parcel in) {
+			super(in);
+			data = in.createByteArray();
+			imageResId = in.readInt();
+		}
+		
+		@Override
+		public void writeToParcel(Parcel out, int flags) {
+			super.writeToParcel(out, flags);
+			out.writeByteArray(data);
+			out.writeInt(imageResId);
+		}
+		
+		public static final Parcelable.Creator<SavedState> CREATOR = new Parcelable.Creator<SavedState>() {
+			
+			@Override
+			public SavedState createFromParcel(Parcel in) {
+				return new SavedState(in);
+			}
+			
+			@Override
+			public SavedState[] newArray(int size) {
+				return new SavedState[size];
+			}
+		};
+	}
+	
+
 	public boolean isEditable() {
 		return isEditable;
 	}
@@ -842,19 +2252,4 @@ public class SingleTouchView extends View {
 		invalidate();
 	}
 
-	/**
-	 * 两个点之间的距离
-	 * @param x1
-	 * @param y1
-	 * @param x2
-	 * @param y2
-	 * @return
-	 */
-	private float distance4PointF(PointF pf1, PointF pf2) {
-		float disX = pf2.x - pf1.x;
-		float disY = pf2.y - pf1.y;
-		return FloatMath.sqrt(disX * disX + disY * disY);
-	}
-	
-
 }
@@ -0,0 +1,174 @@
+package com.example.singletouchview;
+
+import android.graphics.Bitmap;
+import android.graphics.Matrix;
+import android.graphics.RectF;
+
+/**
+ * StickerView中的一张贴图，只保存图片和变换状态，不是一个View
+ *
+ * @author xiaanming
+ *
+ */
+public class Sticker {
+	/**
+	 * 用于旋转缩放的Bitmap
+	 */
+	private Bitmap mBitmap;
+
+	/**
+	 * 调用者定义的图片标识，保存和恢复时使用，0表示没有. 资源id在每次编译时可能变化，不适合保存
+	 */
+	private int mImageId;
+
+	/**
+	 * 缩放，旋转，平移的计算核心
+	 */
+	final TransformEngine mEngine = new TransformEngine();
+
+	/**
+	 * 画该贴图的矩阵，相对于StickerView而言
+	 */
+	final Matrix mMatrix = new Matrix();
+
+	/**
+	 * 旋转之后四个点的坐标(x0, y0, x1, y1...)，相对于StickerView而言
+	 */
+	final float[] mPoints = new float[8];
+
+	/**
+	 * 旋转之后四个点的外接矩形，相对于StickerView而言
+	 */
+	final RectF mBounds = new RectF();
+
+	/**
+	 * 图片的透明度掩码，第一次点击测试时获取
+	 */
+	private AlphaMask mAlphaMask;
+
+	/**
+	 * 点击位置映射到图片坐标之后的结果
+	 */
+	private final float[] mHitPoint = new float[2];
+
+	/**
+	 * 在StickerView的四叉树中对应的条目
+	 */
+	QuadTree.Entry<Sticker> mEntry;
+
+	/**
+	 * 在StickerView中的层级，越大越靠上
+	 */
+	int mIndex;
+
+	/**
+	 * 添加时StickerView还没有大小，等onSizeChanged()时再放到中心. 添加之后设置过中心点则不再移动
+	 */
+	boolean mCenterPending;
+
+	/**
+	 * StickerView.animateSticker()的动画，第一次使用时创建
+	 */
+	TransformAnimator.Animation mAnimation;
+
+
+	public Sticker(Bitmap bitmap) {
+		this.mBitmap = bitmap;
+		mEngine.setScaleRange(SingleTouchView.MIN_SCALE, SingleTouchView.MAX_SCALE);
+	}
+
+	public Bitmap getBitmap() {
+		return mBitmap;
+	}
+
+	public int getImageId() {
+		return mImageId;
+	}
+
+	public void setImageId(int imageId) {
+		this.mImageId = imageId;
+	}
+
+	public float getCenterX() {
+		return mEngine.getCenterX();
+	}
+
+	public float getCenterY() {
+		return mEngine.getCenterY();
+	}
+
+	public float getDegree() {
+		return mEngine.getDegree();
+	}
+
+	public float getScale() {
+		return mEngine.getScale();
+	}
+
+	/**
+	 * 画该贴图的矩阵，相对于StickerView而言，不要修改
+	 */
+	public Matrix getMatrix() {
+		return mMatrix;
+	}
+
+	/**
+	 * 旋转之后四个点的外接矩形，相对于StickerView而言
+	 */
+	public RectF getBounds() {
+		return mBounds;
+	}
+
+
+	/**
+	 * 根据当前的状态重新计算矩阵，四个点和外接矩形
+	 */
+	void update(){
+		if(mBitmap == null) return;
+		mEngine.setBitmapSize(mBitmap.getWidth(), mBitmap.getHeight());
+		mEngine.compute();
+
+		int left = mEngine.getLayoutLeft();
+		int top = mEngine.getLayoutTop();
+
+		mMatrix.setValues(mEngine.getMatrixValues());
+		mMatrix.postTranslate(left, top);
+
+		float[] corners = mEngine.getCorners();
+		float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE;
+		float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+		for(int i = 0; i < corners.length; i += 2){
+			float x = corners[i] + left;
+			float y = corners[i + 1] + top;
+			mPoints[i] = x;
+			mPoints[i + 1] = y;
+			minX = Math.min(minX, x);
+			maxX = Math.max(maxX, x);
+			minY = Math.min(minY, y);
+			maxY = Math.max(maxY, y);
+		}
+		mBounds.set(minX, minY, maxX, maxY);
+	}
+
+
+	/**
+	 * 点(x, y)是否点中图片的不透明区域，通过逆矩阵映射回图片坐标之后查询透明度掩码，坐标相对于StickerView而言
+	 */
+	boolean hitImage(float x, float y){
+		if(mBitmap == null || !mBounds.contains(x, y)) return false;
+		if(mAlphaMask == null){
+			mAlphaMask = AlphaMask.obtain(mBitmap);
+		}
+		mEngine.mapToBitmap(x - mEngine.getLayoutLeft(), y - mEngine.getLayoutTop(), mHitPoint);
+		return mAlphaMask.isOpaque(mHitPoint[0], mHitPoint[1]);
+	}
+
+
+	/**
+	 * 点(x, y)是否点中控制图标，坐标相对于StickerView而言
+	 */
+	boolean hitControl(float x, float y){
+		return mEngine.hitControl(x - mEngine.getLayoutLeft(), y - mEngine.getLayoutTop());
+	}
+
+}
@@ -0,0 +1,581 @@
+package com.example.singletouchview;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.net.Uri;
+
+/**
+ * 把所有贴图按照预览时的Matrix合成到原始分辨率的背景图上，不依赖View.
+ * 预览时的贴图可能是采样或者缩小过的，指定了{@link ImageSource}的贴图在导出开始时从原图重新解码,
+ * 分辨率只在超过输出需要的两倍以上时才按2的幂次降低.
+ * 输出按照分块(tile)处理，每块在线程池中并行绘制后交给TileSink，背景图通过BitmapRegionDecoder按块解码.
+ * 解码的贴图和同时存在的块都从同一个内存预算中扣除: 先留出一个工作线程，贴图放不下时继续提高inSampleSize,
+ * 剩下的预算决定并行数，所以即使输出很大也不会一次占用整张图的内存. 预算连一个工作线程都放不下时导出失败
+ *
+ * @author xiaanming
+ *
+ */
+public class StickerExporter {
+	/**
+	 * 默认的块大小
+	 */
+	public static final int DEFAULT_TILE_SIZE = 512;
+
+	/**
+	 * 默认的内存预算, 32M
+	 */
+	public static final long DEFAULT_MEMORY_BUDGET = 32 * 1024 * 1024;
+
+	/**
+	 * 接收绘制好的块，在工作线程中回调，需要线程安全. tile在回调返回之后会被复用，需要在回调中处理完
+	 */
+	public interface TileSink {
+		/**
+		 * @param tile 绘制好的块，右边和下边的块可能只有一部分有效
+		 * @param left 该块在输出图中的左边位置
+		 * @param top 该块在输出图中的上边位置
+		 * @param width 该块有效的宽度
+		 * @param height 该块有效的高度
+		 */
+		void onTile(Bitmap tile, int left, int top, int width, int height);
+	}
+
+	/**
+	 * 贴图的原图，导出时从这里解码，而不是使用预览的Bitmap
+	 */
+	public interface ImageSource {
+		/**
+		 * 在导出线程中调用，先以inJustDecodeBounds调用一次获取大小，再设置inSampleSize解码
+		 * @param options
+		 * @return 解码失败返回null, 这时使用预览的Bitmap
+		 * @throws IOException
+		 */
+		Bitmap decode(BitmapFactory.Options options) throws IOException;
+	}
+
+	/**
+	 * StickerView中贴图的imageId对应的原图
+	 */
+	public interface ImageSourceResolver {
+		/**
+		 * @param imageId
+		 * @return 没有原图返回null, 使用预览的Bitmap
+		 */
+		ImageSource resolve(int imageId);
+	}
+
+	/**
+	 * 一张贴图在预览坐标系中的快照
+	 */
+	private static final class Layer {
+		private final Bitmap bitmap;
+		private final Matrix matrix = new Matrix();
+		private final ImageSource source;
+
+		/**
+		 * 实际绘制的Bitmap, 从原图解码时是解码的结果，否则是预览的Bitmap
+		 */
+		private Bitmap drawBitmap;
+
+		/**
+		 * drawBitmap到输出坐标系的矩阵，以及在输出坐标系中的范围
+		 */
+		private final Matrix outputMatrix = new Matrix();
+		private final RectF bounds = new RectF();
+
+		/**
+		 * 原图的大小(0表示不从原图解码)和解码时的inSampleSize
+		 */
+		private int sourceWidth, sourceHeight;
+		private int sampleSize;
+
+		private Layer(Bitmap bitmap, Matrix matrix, ImageSource source) {
+			this.bitmap = bitmap;
+			this.matrix.set(matrix);
+			this.source = source;
+		}
+	}
+
+	private final int mOutputWidth, mOutputHeight;
+	private float mPreviewWidth, mPreviewHeight;
+
+	private BitmapRegionDecoder mBackgroundDecoder;
+	private int mBackgroundColor = Color.TRANSPARENT;
+
+	private final List<Layer> mLayers = new ArrayList<Layer>();
+
+	private int mTileSize = DEFAULT_TILE_SIZE;
+	private long mMemoryBudget = DEFAULT_MEMORY_BUDGET;
+	private int mThreadCount = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+
+
+	/**
+	 * @param outputWidth 输出图片的宽
+	 * @param outputHeight 输出图片的高
+	 */
+	public StickerExporter(int outputWidth, int outputHeight) {
+		this.mOutputWidth = outputWidth;
+		this.mOutputHeight = outputHeight;
+		this.mPreviewWidth = outputWidth;
+		this.mPreviewHeight = outputHeight;
+	}
+
+
+	/**
+	 * 设置预览(编辑)时坐标系的大小，贴图的Matrix都是相对于该坐标系的，导出时等比放大到输出大小
+	 * @param width
+	 * @param height
+	 */
+	public void setPreviewSize(float width, float height){
+		mPreviewWidth = width;
+		mPreviewHeight = height;
+	}
+
+	/**
+	 * 设置原始分辨率的背景图，按块解码并缩放到输出大小
+	 * @param decoder
+	 */
+	public void setBackground(BitmapRegionDecoder decoder){
+		mBackgroundDecoder = decoder;
+	}
+
+	public void setBackgroundColor(int color){
+		mBackgroundColor = color;
+	}
+
+	public void setTileSize(int tileSize){
+		mTileSize = tileSize;
+	}
+
+	/**
+	 * 设置导出最多占用的内存，包括从原图解码的贴图和同时绘制的块，决定贴图的分辨率和实际的并行数
+	 * @param bytes
+	 */
+	public void setMemoryBudget(long bytes){
+		mMemoryBudget = bytes;
+	}
+
+	public void setThreadCount(int threadCount){
+		mThreadCount = Math.max(1, threadCount);
+	}
+
+
+	/**
+	 * 添加一张贴图，直接使用该Bitmap导出
+	 * @param bitmap 贴图，导出期间不能被回收
+	 * @param matrix 贴图到预览坐标系的矩阵，会被复制
+	 */
+	public void addLayer(Bitmap bitmap, Matrix matrix){
+		addLayer(bitmap, matrix, null);
+	}
+
+
+	/**
+	 * 添加一张贴图，导出时从原图解码
+	 * @param bitmap 预览的贴图，确定原图的位置，原图解码失败时使用它
+	 * @param matrix 预览的贴图到预览坐标系的矩阵，会被复制
+	 * @param source 原图，为null时直接使用bitmap
+	 */
+	public void addLayer(Bitmap bitmap, Matrix matrix, ImageSource source){
+		if(bitmap == null) return;
+		mLayers.add(new Layer(bitmap, matrix, source));
+	}
+
+
+	/**
+	 * 添加SingleTouchView当前的贴图，Matrix相对于它的父布局.
+	 * 通过资源id或者Uri设置的图片导出时从原图解码
+	 * @param view
+	 */
+	public void addLayer(SingleTouchView view){
+		Matrix matrix = new Matrix();
+		view.getImageMatrix(matrix);
+
+		//加载中显示的是placeholder, 与原图的形状无关
+		ImageSource source = null;
+		if(!view.isLoading()){
+			if(view.getImageUri() != null){
+				source = sourceOf(view.getContext(), view.getImageUri());
+			}else if(view.getImageResourceId() != 0){
+				source = sourceOf(view.getContext(), view.getImageResourceId());
+			}
+		}
+		addLayer(view.getImageBitmap(), matrix, source);
+	}
+
+
+	/**
+	 * 添加StickerView中的所有贴图，按照层级从下往上，直接使用预览的Bitmap
+	 * @param view
+	 */
+	public void addLayers(StickerView view){
+		addLayers(view, null);
+	}
+
+
+	/**
+	 * 添加StickerView中的所有贴图，按照层级从下往上，贴图的imageId通过resolver找到原图
+	 * @param view
+	 * @param resolver 为null时使用预览的Bitmap
+	 */
+	public void addLayers(StickerView view, ImageSourceResolver resolver){
+		List<Sticker> stickers = view.getStickers();
+		for(int i = 0; i < stickers.size(); i++){
+			Sticker sticker = stickers.get(i);
+			ImageSource source = resolver != null && sticker.getImageId() != 0
+					? resolver.resolve(sticker.getImageId()) : null;
+			addLayer(sticker.getBitmap(), sticker.getMatrix(), source);
+		}
+	}
+
+
+	/**
+	 * Uri指向的原图(content://, file://, android.resource://)
+	 */
+	public static ImageSource sourceOf(Context context, final Uri uri){
+		final Context appContext = context.getApplicationContext();
+		return new ImageSource() {
+
+			@Override
+			public Bitmap decode(BitmapFactory.Options options) throws IOException {
+				InputStream input = appContext.getContentResolver().openInputStream(uri);
+				if(input == null) return null;
+				try {
+					return BitmapFactory.decodeStream(input, null, options);
+				} finally {
+					input.close();
+				}
+			}
+		};
+	}
+
+
+	/**
+	 * 位图资源的原图，不按屏幕密度缩放
+	 */
+	public static ImageSource sourceOf(Context context, final int resId){
+		final Context appContext = context.getApplicationContext();
+		return new ImageSource() {
+
+			@Override
+			public Bitmap decode(BitmapFactory.Options options) throws IOException {
+				options.inScaled = false;
+				return BitmapFactory.decodeResource(appContext.getResources(), resId, options);
+			}
+		};
+	}
+
+
+	/**
+	 * 开始导出，阻塞直到所有的块都交给了sink，不能在UI线程中调用
+	 * @param sink
+	 * @throws InterruptedException
+	 * @throws ExecutionException 绘制或者解码时出错
+	 * @throws IllegalStateException 内存预算放不下一个工作线程，或者贴图在预算之内解码时内存不足
+	 */
+	public void export(final TileSink sink) throws InterruptedException, ExecutionException{
+		try {
+			render(sink);
+		} finally {
+			recycleDecodedLayers();
+		}
+	}
+
+
+	private void render(final TileSink sink) throws InterruptedException, ExecutionException{
+		final int tileSize = mTileSize;
+		final int columns = (mOutputWidth + tileSize - 1) / tileSize;
+		final int rows = (mOutputHeight + tileSize - 1) / tileSize;
+		final int tileCount = columns * rows;
+
+		//预览坐标系 -> 输出坐标系
+		final float scaleX = mOutputWidth / mPreviewWidth;
+		final float scaleY = mOutputHeight / mPreviewHeight;
+		for(int i = 0; i < mLayers.size(); i++){
+			Layer layer = mLayers.get(i);
+			layer.outputMatrix.set(layer.matrix);
+			layer.outputMatrix.postScale(scaleX, scaleY);
+			layer.bounds.set(0, 0, layer.bitmap.getWidth(), layer.bitmap.getHeight());
+			layer.outputMatrix.mapRect(layer.bounds);
+			layer.drawBitmap = layer.bitmap;
+		}
+
+		//每个线程一块输出，再加上背景解码的临时图片. 至少要放得下一个线程
+		long bytesPerWorker = (long) tileSize * tileSize * 4 + estimateBackgroundBytes(tileSize);
+		if(bytesPerWorker > mMemoryBudget){
+			throw new IllegalStateException("Memory budget " + mMemoryBudget
+					+ " bytes cannot fit one tile worker of " + bytesPerWorker + " bytes");
+		}
+
+		//从原图解码的贴图所有线程共用，只能使用留出一个线程之后的预算
+		long layerBytes = decodeLayers(mMemoryBudget - bytesPerWorker);
+
+		int workers = (int) Math.min(mThreadCount, (mMemoryBudget - layerBytes) / bytesPerWorker);
+		workers = Math.min(workers, tileCount);
+
+		final AtomicInteger nextTile = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(workers);
+		try {
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			for(int i = 0; i < workers; i++){
+				futures.add(executor.submit(new Callable<Void>() {
+
+					@Override
+					public Void call() throws Exception {
+						TileRenderer renderer = new TileRenderer(tileSize);
+						try {
+							int index;
+							while((index = nextTile.getAndIncrement()) < tileCount){
+								if(Thread.currentThread().isInterrupted()){
+									throw new InterruptedException();
+								}
+								int left = (index % columns) * tileSize;
+								int top = (index / columns) * tileSize;
+								int width = Math.min(tileSize, mOutputWidth - left);
+								int height = Math.min(tileSize, mOutputHeight - top);
+								renderer.render(left, top, width, height);
+								sink.onTile(renderer.tile, left, top, width, height);
+							}
+						} finally {
+							renderer.tile.recycle();
+						}
+						return null;
+					}
+				}));
+			}
+
+			for(int i = 0; i < futures.size(); i++){
+				futures.get(i).get();
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+
+	/**
+	 * 从原图解码指定了ImageSource的贴图，分辨率按照在输出中显示的大小，不超过原图.
+	 * 合计超出预算时每次把占用最多的贴图的inSampleSize提高一倍，直到放得下.
+	 * 原图解码失败(IOException或者返回null)时使用预览的Bitmap
+	 * @param budget 所有贴图可以使用的字节数
+	 * @return 解码出来的贴图占用的字节数
+	 * @throws IllegalStateException 都降到1像素也放不下，或者解码时内存不足
+	 */
+	private long decodeLayers(long budget){
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		float[] values = new float[9];
+
+		//先只解码大小，确定每张贴图需要的采样率
+		long total = 0;
+		for(int i = 0; i < mLayers.size(); i++){
+			Layer layer = mLayers.get(i);
+			layer.sourceWidth = 0;
+			if(layer.source == null) continue;
+
+			//预览的贴图在输出中显示的大小
+			layer.outputMatrix.getValues(values);
+			float scaleX = (float) Math.sqrt(values[Matrix.MSCALE_X] * values[Matrix.MSCALE_X]
+					+ values[Matrix.MSKEW_Y] * values[Matrix.MSKEW_Y]);
+			float scaleY = (float) Math.sqrt(values[Matrix.MSKEW_X] * values[Matrix.MSKEW_X]
+					+ values[Matrix.MSCALE_Y] * values[Matrix.MSCALE_Y]);
+			int outputWidth = (int) Math.ceil(layer.bitmap.getWidth() * scaleX);
+			int outputHeight = (int) Math.ceil(layer.bitmap.getHeight() * scaleY);
+
+			try {
+				options.inJustDecodeBounds = true;
+				options.inSampleSize = 1;
+				options.outWidth = 0;
+				options.outHeight = 0;
+				layer.source.decode(options);
+			} catch (IOException e) {
+				continue;
+			}
+			if(options.outWidth <= 0 || options.outHeight <= 0) continue;
+
+			layer.sourceWidth = options.outWidth;
+			layer.sourceHeight = options.outHeight;
+			layer.sampleSize = StickerImageLoader.computeSampleSize(options.outWidth, options.outHeight,
+					outputWidth, outputHeight);
+			total += decodedBytes(layer);
+		}
+
+		//超出预算时降低占用最多的贴图的分辨率
+		while(total > budget){
+			Layer largest = null;
+			for(int i = 0; i < mLayers.size(); i++){
+				Layer layer = mLayers.get(i);
+				if(layer.sourceWidth > 0 && (largest == null || decodedBytes(layer) > decodedBytes(largest))){
+					largest = layer;
+				}
+			}
+			if(largest == null || (largest.sampleSize >= largest.sourceWidth && largest.sampleSize >= largest.sourceHeight)){
+				throw new IllegalStateException("Memory budget " + budget + " bytes cannot fit the decoded layers");
+			}
+			total -= decodedBytes(largest);
+			largest.sampleSize *= 2;
+			total += decodedBytes(largest);
+		}
+
+		long bytes = 0;
+		options.inJustDecodeBounds = false;
+		options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+		for(int i = 0; i < mLayers.size(); i++){
+			Layer layer = mLayers.get(i);
+			if(layer.sourceWidth <= 0) continue;
+
+			Bitmap decoded;
+			try {
+				options.inSampleSize = layer.sampleSize;
+				decoded = layer.source.decode(options);
+			} catch (IOException e) {
+				decoded = null;
+			} catch (OutOfMemoryError e) {
+				//已经按预算解码，仍然内存不足时不悄悄降低画质
+				throw new IllegalStateException("Out of memory decoding layer " + i, e);
+			}
+			if(decoded == null) continue;
+
+			//原图与预览的贴图是同一张图片，只是分辨率不同
+			layer.outputMatrix.preScale((float) layer.bitmap.getWidth() / decoded.getWidth(),
+					(float) layer.bitmap.getHeight() / decoded.getHeight());
+			layer.drawBitmap = decoded;
+			bytes += (long) decoded.getRowBytes() * decoded.getHeight();
+		}
+		return bytes;
+	}
+
+
+	/**
+	 * 贴图按inSampleSize解码之后ARGB_8888的字节数
+	 */
+	private static long decodedBytes(Layer layer){
+		long width = (layer.sourceWidth + layer.sampleSize - 1) / layer.sampleSize;
+		long height = (layer.sourceHeight + layer.sampleSize - 1) / layer.sampleSize;
+		return width * height * 4;
+	}
+
+
+	private void recycleDecodedLayers(){
+		for(int i = 0; i < mLayers.size(); i++){
+			Layer layer = mLayers.get(i);
+			if(layer.drawBitmap != null && layer.drawBitmap != layer.bitmap){
+				layer.drawBitmap.recycle();
+			}
+			layer.drawBitmap = null;
+		}
+	}
+
+
+	/**
+	 * 一块输出对应的背景区域解码之后的字节数，与drawBackground()的解码方式一致
+	 */
+	private long estimateBackgroundBytes(int tileSize){
+		BitmapRegionDecoder decoder = mBackgroundDecoder;
+		if(decoder == null) return 0;
+		float ratioX = (float) decoder.getWidth() / mOutputWidth;
+		float ratioY = (float) decoder.getHeight() / mOutputHeight;
+		int sampleSize = getBackgroundSampleSize(ratioX, ratioY);
+
+		//区域的边界向外取整，多出一个像素
+		long width = (long) Math.ceil((Math.ceil(tileSize * ratioX) + 1) / sampleSize);
+		long height = (long) Math.ceil((Math.ceil(tileSize * ratioY) + 1) / sampleSize);
+		return width * height * 4;
+	}
+
+
+	/**
+	 * 背景按块解码的采样率，不低于输出需要的分辨率
+	 */
+	private static int getBackgroundSampleSize(float ratioX, float ratioY){
+		int sampleSize = 1;
+		while(sampleSize * 2 <= Math.min(ratioX, ratioY)){
+			sampleSize *= 2;
+		}
+		return sampleSize;
+	}
+
+
+	/**
+	 * 一个工作线程使用的绘制状态，块图片和Canvas在该线程中复用
+	 */
+	private final class TileRenderer {
+		private final Bitmap tile;
+		private final Canvas canvas;
+		private final Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.FILTER_BITMAP_FLAG);
+		private final Rect srcRect = new Rect();
+		private final RectF dstRect = new RectF();
+		private final BitmapFactory.Options options = new BitmapFactory.Options();
+
+		private TileRenderer(int tileSize) {
+			tile = Bitmap.createBitmap(tileSize, tileSize, Bitmap.Config.ARGB_8888);
+			canvas = new Canvas(tile);
+		}
+
+		private void render(int left, int top, int width, int height){
+			tile.eraseColor(mBackgroundColor);
+
+			int saveCount = canvas.save();
+			canvas.clipRect(0, 0, width, height);
+			canvas.translate(-left, -top);
+
+			if(mBackgroundDecoder != null){
+				drawBackground(left, top, width, height);
+			}
+
+			for(int i = 0; i < mLayers.size(); i++){
+				Layer layer = mLayers.get(i);
+				RectF bounds = layer.bounds;
+				if(bounds.right < left || bounds.left > left + width
+						|| bounds.bottom < top || bounds.top > top + height){
+					continue;
+				}
+				canvas.drawBitmap(layer.drawBitmap, layer.outputMatrix, paint);
+			}
+
+			canvas.restoreToCount(saveCount);
+		}
+
+		/**
+		 * 只解码该块对应的背景区域，按比例设置inSampleSize
+		 */
+		private void drawBackground(int left, int top, int width, int height){
+			BitmapRegionDecoder decoder = mBackgroundDecoder;
+			float ratioX = (float) decoder.getWidth() / mOutputWidth;
+			float ratioY = (float) decoder.getHeight() / mOutputHeight;
+
+			srcRect.set((int) Math.floor(left * ratioX), (int) Math.floor(top * ratioY),
+					Math.min(decoder.getWidth(), (int) Math.ceil((left + width) * ratioX)),
+					Math.min(decoder.getHeight(), (int) Math.ceil((top + height) * ratioY)));
+			if(srcRect.isEmpty()) return;
+
+			options.inSampleSize = getBackgroundSampleSize(ratioX, ratioY);
+
+			Bitmap region = decoder.decodeRegion(srcRect, options);
+			if(region == null) return;
+
+			dstRect.set(srcRect.left / ratioX, srcRect.top / ratioY, srcRect.right / ratioX, srcRect.bottom / ratioY);
+			canvas.drawBitmap(region, null, dstRect, paint);
+			region.recycle();
+		}
+	}
+
+}
@@ -0,0 +1,289 @@
+package com.example.singletouchview;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * 在后台线程中解码贴图，根据需要显示的大小设置inSampleSize，不解码完整分辨率.
+ * jpeg图片使用调用者指定的不透明Config, 指定了BitmapPool时按原图大小解码的图片复用池中的内存.
+ * 所有贴图共用一个线程池，不再需要的请求可以取消，已经开始的解码也会被中断
+ *
+ * @author xiaanming
+ *
+ */
+public class StickerImageLoader {
+	/**
+	 * 解码线程数
+	 */
+	private static final int THREAD_COUNT = 2;
+
+	private static ExecutorService sExecutor;
+
+	private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+
+	/**
+	 * 解码完成后在UI线程中回调，请求被取消之后不会回调
+	 */
+	public interface Callback {
+		/**
+		 * @param request
+		 * @param bitmap 解码失败时为null
+		 */
+		void onImageLoaded(Request request, Bitmap bitmap);
+	}
+
+
+	/**
+	 * 一次解码请求
+	 */
+	public static final class Request implements Runnable {
+		private final Context context;
+		private final Uri uri;
+		private final int resId;
+		private final int reqWidth, reqHeight;
+		private final Config opaqueConfig;
+		private final BitmapPool pool;
+		private final Callback callback;
+		private final BitmapFactory.Options options = new BitmapFactory.Options();
+
+		private volatile boolean cancelled;
+		private Future<?> future;
+		private int sampleSize = 1;
+
+		private Request(Context context, Uri uri, int resId, int reqWidth, int reqHeight,
+				Config opaqueConfig, BitmapPool pool, Callback callback) {
+			this.context = context.getApplicationContext();
+			this.uri = uri;
+			this.resId = resId;
+			this.reqWidth = reqWidth;
+			this.reqHeight = reqHeight;
+			this.opaqueConfig = opaqueConfig;
+			this.pool = pool;
+			this.callback = callback;
+		}
+
+		/**
+		 * 图片的资源id，通过Uri加载时为0
+		 */
+		public int getResourceId() {
+			return resId;
+		}
+
+		public Uri getUri() {
+			return uri;
+		}
+
+		/**
+		 * 解码使用的inSampleSize, 图片按原图大小显示时需要放大该倍数. 在回调中读取
+		 */
+		public int getSampleSize() {
+			return sampleSize;
+		}
+
+		/**
+		 * 取消请求，只能在UI线程中调用. 还没有开始的请求从队列中移除，正在进行的解码会被中断
+		 */
+		public void cancel(){
+			cancelled = true;
+			options.requestCancelDecode();
+			if(future != null){
+				future.cancel(false);
+			}
+		}
+
+		public boolean isCancelled() {
+			return cancelled;
+		}
+
+		@Override
+		public void run() {
+			if(cancelled) return;
+
+			Bitmap bitmap = null;
+			try {
+				bitmap = decode();
+			} catch (IOException e) {
+				bitmap = null;
+			} catch (OutOfMemoryError e) {
+				bitmap = null;
+			}
+
+			final Bitmap result = bitmap;
+			sMainHandler.post(new Runnable() {
+
+				@Override
+				public void run() {
+					if(cancelled){
+						if(result != null) result.recycle();
+						return;
+					}
+					callback.onImageLoaded(Request.this, result);
+				}
+			});
+		}
+
+		private Bitmap decode() throws IOException{
+			options.inJustDecodeBounds = true;
+			decodeStream();
+			if(cancelled || options.outWidth <= 0 || options.outHeight <= 0){
+				return null;
+			}
+
+			sampleSize = computeSampleSize(options.outWidth, options.outHeight, reqWidth, reqHeight);
+			Config config = "image/jpeg".equals(options.outMimeType) ? opaqueConfig : Config.ARGB_8888;
+			options.inSampleSize = sampleSize;
+			options.inPreferredConfig = config;
+			options.inJustDecodeBounds = false;
+
+			//API 18及以下inBitmap必须与解码结果一样大，采样之后的大小不能预先确定，只在按原图大小解码时复用
+			if(pool != null && sampleSize == 1 && Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB){
+				options.inMutable = true;
+				options.inBitmap = pool.get(options.outWidth, options.outHeight, config);
+			}
+			try {
+				return decodeStream();
+			} catch (IllegalArgumentException e) {
+				//inBitmap与解码结果不兼容(比如资源经过了密度缩放), 不复用再解码一次
+				if(options.inBitmap == null) throw e;
+				pool.put(options.inBitmap);
+				options.inBitmap = null;
+				return decodeStream();
+			} finally {
+				options.inBitmap = null;
+			}
+		}
+
+		private Bitmap decodeStream() throws IOException{
+			if(uri == null){
+				return BitmapFactory.decodeResource(context.getResources(), resId, options);
+			}
+
+			InputStream input = context.getContentResolver().openInputStream(uri);
+			if(input == null) return null;
+			try {
+				return BitmapFactory.decodeStream(input, null, options);
+			} finally {
+				input.close();
+			}
+		}
+	}
+
+
+	/**
+	 * 加载Uri指向的图片(content://, file://, android.resource://)
+	 * @param context
+	 * @param uri
+	 * @param reqWidth 需要显示的宽，解码之后的宽不会小于该值(除非原图更小)
+	 * @param reqHeight 需要显示的高
+	 * @param callback
+	 * @return 可以用来取消的请求
+	 */
+	public static Request load(Context context, Uri uri, int reqWidth, int reqHeight, Callback callback){
+		return load(context, uri, reqWidth, reqHeight, Config.ARGB_8888, null, callback);
+	}
+
+
+	/**
+	 * 加载Uri指向的图片
+	 * @param context
+	 * @param uri
+	 * @param reqWidth
+	 * @param reqHeight
+	 * @param opaqueConfig jpeg图片使用的Config
+	 * @param pool 不为null时复用池中的Bitmap解码
+	 * @param callback
+	 * @return 可以用来取消的请求
+	 */
+	public static Request load(Context context, Uri uri, int reqWidth, int reqHeight,
+			Config opaqueConfig, BitmapPool pool, Callback callback){
+		return submit(new Request(context, uri, 0, reqWidth, reqHeight, opaqueConfig, pool, callback));
+	}
+
+
+	/**
+	 * 加载位图资源，与Resources一样会按照屏幕密度缩放
+	 * @param context
+	 * @param resId
+	 * @param reqWidth 需要显示的宽，解码之后的宽不会小于该值(除非原图更小)
+	 * @param reqHeight 需要显示的高
+	 * @param callback
+	 * @return 可以用来取消的请求
+	 */
+	public static Request load(Context context, int resId, int reqWidth, int reqHeight, Callback callback){
+		return load(context, resId, reqWidth, reqHeight, Config.ARGB_8888, null, callback);
+	}
+
+
+	/**
+	 * 加载位图资源
+	 * @param context
+	 * @param resId
+	 * @param reqWidth
+	 * @param reqHeight
+	 * @param opaqueConfig jpeg图片使用的Config
+	 * @param pool 不为null时复用池中的Bitmap解码
+	 * @param callback
+	 * @return 可以用来取消的请求
+	 */
+	public static Request load(Context context, int resId, int reqWidth, int reqHeight,
+			Config opaqueConfig, BitmapPool pool, Callback callback){
+		return submit(new Request(context, null, resId, reqWidth, reqHeight, opaqueConfig, pool, callback));
+	}
+
+
+	private static Request submit(Request request){
+		request.future = getExecutor().submit(request);
+		return request;
+	}
+
+
+	private static synchronized ExecutorService getExecutor(){
+		if(sExecutor == null){
+			sExecutor = Executors.newFixedThreadPool(THREAD_COUNT, new ThreadFactory() {
+				private final AtomicInteger mCount = new AtomicInteger();
+
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "StickerImageLoader #" + mCount.incrementAndGet());
+					thread.setDaemon(true);
+					thread.setPriority(Thread.MIN_PRIORITY);
+					return thread;
+				}
+			});
+		}
+		return sExecutor;
+	}
+
+
+	/**
+	 * 计算2的幂次的inSampleSize，使解码之后的宽高都不小于需要的宽高
+	 * @param width 原图的宽
+	 * @param height 原图的高
+	 * @param reqWidth
+	 * @param reqHeight
+	 * @return
+	 */
+	public static int computeSampleSize(int width, int height, int reqWidth, int reqHeight){
+		int sampleSize = 1;
+		if(reqWidth <= 0 || reqHeight <= 0) return sampleSize;
+		while(width / (sampleSize * 2) >= reqWidth && height / (sampleSize * 2) >= reqHeight){
+			sampleSize *= 2;
+		}
+		return sampleSize;
+	}
+
+}
@@ -0,0 +1,174 @@
+package com.example.singletouchview;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 一张贴图的变换状态，以及紧凑的二进制格式:
+ * 头部为 magic(2字节) + 版本(1字节) + 数量(4字节)，之后每张贴图固定{@link #RECORD_SIZE}字节.
+ * 中心点是父布局中的像素坐标，外边框的间距和线宽是与屏幕密度无关的dp(float), 恢复时按当前设备的密度转换成像素.
+ * 图片只保存调用者定义的imageId，恢复时由调用者提供已经缓存的图片，不需要重新解码
+ *
+ * @author xiaanming
+ *
+ */
+public class StickerSnapshot {
+	/**
+	 * 当前的格式版本，读取时不支持比它新的版本
+	 */
+	public static final int VERSION = 2;
+
+	private static final short MAGIC = 0x5354;
+
+	/**
+	 * 每张贴图占用的字节数
+	 */
+	public static final int RECORD_SIZE = 4 * 4 + 4 + 1 + 1 + 4 * 3;
+
+	private static final int FLAG_EDITABLE = 1;
+
+	public float centerX;
+	public float centerY;
+	public float degree;
+	public float scale = SingleTouchView.DEFAULT_SCALE;
+
+	/**
+	 * 调用者定义的图片标识(比如素材库中的id)，0表示没有可以恢复的图片来源.
+	 * 不要使用资源id(R.drawable.xxx), 资源id在每次编译时可能变化，升级之后保存的快照会对应到别的图片
+	 */
+	public int imageId;
+
+	public int controlLocation = SingleTouchView.DEFAULT_CONTROL_LOCATION;
+	public boolean editable = SingleTouchView.DEFAULT_EDITABLE;
+
+	/**
+	 * 外边框的间距，线宽(dp)和颜色
+	 */
+	public float framePadding;
+	public float frameWidth;
+	public int frameColor = SingleTouchView.DEFAULT_FRAME_COLOR;
+
+
+	private void write(DataOutputStream out) throws IOException{
+		out.writeFloat(centerX);
+		out.writeFloat(centerY);
+		out.writeFloat(degree);
+		out.writeFloat(scale);
+		out.writeInt(imageId);
+		out.writeByte(controlLocation);
+		out.writeByte(editable ? FLAG_EDITABLE : 0);
+		out.writeFloat(framePadding);
+		out.writeFloat(frameWidth);
+		out.writeInt(frameColor);
+	}
+
+
+	private void read(DataInputStream in, int version) throws IOException{
+		centerX = in.readFloat();
+		centerY = in.readFloat();
+		degree = in.readFloat();
+		scale = in.readFloat();
+		imageId = in.readInt();
+		controlLocation = in.readByte();
+		editable = (in.readByte() & FLAG_EDITABLE) != 0;
+		if(version >= 2){
+			framePadding = in.readFloat();
+			frameWidth = in.readFloat();
+		}else{
+			//版本1保存的是像素，不知道保存时的密度，按照1像素=1dp读取
+			framePadding = in.readInt();
+			frameWidth = in.readInt();
+		}
+		frameColor = in.readInt();
+	}
+
+
+	/**
+	 * 批量写入
+	 * @param snapshots
+	 * @param output 不会被关闭
+	 * @throws IOException
+	 */
+	public static void writeAll(List<StickerSnapshot> snapshots, OutputStream output) throws IOException{
+		DataOutputStream out = new DataOutputStream(output);
+		out.writeShort(MAGIC);
+		out.writeByte(VERSION);
+		out.writeInt(snapshots.size());
+		for(int i = 0; i < snapshots.size(); i++){
+			snapshots.get(i).write(out);
+		}
+		out.flush();
+	}
+
+
+	/**
+	 * 批量读取
+	 * @param input 不会被关闭
+	 * @return
+	 * @throws IOException 格式不对或者版本比当前新
+	 */
+	public static List<StickerSnapshot> readAll(InputStream input) throws IOException{
+		DataInputStream in = new DataInputStream(input);
+		if(in.readShort() != MAGIC){
+			throw new IOException("Not a sticker snapshot");
+		}
+		int version = in.readUnsignedByte();
+		if(version > VERSION){
+			throw new IOException("Unsupported sticker snapshot version " + version);
+		}
+
+		int count = in.readInt();
+		if(count < 0){
+			throw new IOException("Invalid sticker count " + count);
+		}
+		List<StickerSnapshot> snapshots = new ArrayList<StickerSnapshot>(Math.min(count, 1024));
+		for(int i = 0; i < count; i++){
+			StickerSnapshot snapshot = new StickerSnapshot();
+			snapshot.read(in, version);
+			snapshots.add(snapshot);
+		}
+		return snapshots;
+	}
+
+
+	/**
+	 * 单张贴图转换成字节数组，格式与批量写入相同
+	 * @return
+	 */
+	public byte[] toByteArray(){
+		ByteArrayOutputStream output = new ByteArrayOutputStream(RECORD_SIZE + 7);
+		List<StickerSnapshot> snapshots = new ArrayList<StickerSnapshot>(1);
+		snapshots.add(this);
+		try {
+			writeAll(snapshots, output);
+		} catch (IOException e) {
+			//ByteArrayOutputStream不会抛出IOException
+			throw new IllegalStateException(e);
+		}
+		return output.toByteArray();
+	}
+
+
+	/**
+	 * 从{@link #toByteArray()}的结果中恢复
+	 * @param data
+	 * @return 数据无效时返回null
+	 */
+	public static StickerSnapshot fromByteArray(byte[] data){
+		if(data == null) return null;
+		try {
+			List<StickerSnapshot> snapshots = readAll(new ByteArrayInputStream(data));
+			return snapshots.isEmpty() ? null : snapshots.get(0);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+}
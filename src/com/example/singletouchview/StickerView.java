@@ -0,0 +1,574 @@
+package com.example.singletouchview;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Paint.Style;
+import android.graphics.Path;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.drawable.Drawable;
+import android.util.AttributeSet;
+import android.util.DisplayMetrics;
+import android.util.TypedValue;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.animation.Interpolator;
+
+/**
+ * 在一个View中放置多张贴图，一次onDraw画完所有贴图，按下时通过四叉树查找点中的贴图,
+ * 适合贴图数量很多的场景，单张贴图可以直接使用SingleTouchView
+ *
+ * @author xiaanming
+ *
+ */
+public class StickerView extends View {
+	/**
+	 * 所有的贴图，按照层级从下往上排列
+	 */
+	private final List<Sticker> mStickers = new ArrayList<Sticker>();
+
+	/**
+	 * 贴图外接矩形的四叉树
+	 */
+	private final QuadTree<Sticker> mQuadTree = new QuadTree<Sticker>(0, 0, 0, 0);
+
+	/**
+	 * 四叉树查询结果，重复使用
+	 */
+	private final List<Sticker> mHitCandidates = new ArrayList<Sticker>();
+
+	/**
+	 * 当前选中的贴图，只有选中的贴图才画边框和控制图标
+	 */
+	private Sticker mSelectedSticker;
+
+	/**
+	 * 画贴图的画笔
+	 */
+	private Paint mBitmapPaint;
+
+	/**
+	 * 画外围框的画笔
+	 */
+	private Paint mFramePaint;
+
+	/**
+	 * 画外围框的Path
+	 */
+	private Path mPath = new Path();
+
+	/**
+	 * 用于缩放，旋转的图标
+	 */
+	private Drawable controlDrawable;
+
+	/**
+	 * 缩放，旋转图标的宽和高
+	 */
+	private int mDrawableWidth, mDrawableHeight;
+
+	/**
+	 * 外边框与图片之间的间距
+	 */
+	private int framePadding;
+
+	/**
+	 * 控制图标所在的位置（比如左上，右上，左下，右下）
+	 */
+	private int controlLocation = SingleTouchView.DEFAULT_CONTROL_LOCATION;
+
+	/**
+	 * 当前所处的状态
+	 */
+	private int mStatus = SingleTouchView.STATUS_INIT;
+
+	private float mPreMoveX, mPreMoveY;
+
+	/**
+	 * 贴图变换前后外接矩形合并之后的刷新区域
+	 */
+	private final RectF mDirtyRectF = new RectF();
+	private final Rect mDirtyRect = new Rect();
+
+
+	/**
+	 * 恢复贴图时根据imageId提供图片，应该返回已经缓存的Bitmap，避免重新解码
+	 */
+	public interface BitmapResolver {
+		/**
+		 * @param imageId 添加贴图时传入的标识
+		 * @return 返回null则跳过该贴图
+		 */
+		Bitmap getBitmap(int imageId);
+	}
+
+
+	public StickerView(Context context, AttributeSet attrs) {
+		this(context, attrs, 0);
+	}
+
+	public StickerView(Context context) {
+		this(context, null);
+	}
+
+	public StickerView(Context context, AttributeSet attrs, int defStyle) {
+		super(context, attrs, defStyle);
+		init();
+	}
+
+
+	private void init(){
+		DisplayMetrics metrics = getContext().getResources().getDisplayMetrics();
+		framePadding = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, SingleTouchView.DEFAULT_FRAME_PADDING, metrics);
+
+		mBitmapPaint = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.FILTER_BITMAP_FLAG);
+
+		mFramePaint = new Paint();
+		mFramePaint.setAntiAlias(true);
+		mFramePaint.setColor(SingleTouchView.DEFAULT_FRAME_COLOR);
+		mFramePaint.setStrokeWidth(TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, SingleTouchView.DEFAULT_FRAME_WIDTH, metrics));
+		mFramePaint.setStyle(Style.STROKE);
+
+		controlDrawable = getContext().getResources().getDrawable(R.drawable.st_rotate_icon);
+		mDrawableWidth = controlDrawable.getIntrinsicWidth();
+		mDrawableHeight = controlDrawable.getIntrinsicHeight();
+	}
+
+
+	@Override
+	protected void onDetachedFromWindow() {
+		super.onDetachedFromWindow();
+		for(int i = 0; i < mStickers.size(); i++){
+			cancelAnimation(mStickers.get(i));
+		}
+	}
+
+
+	@Override
+	protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+		super.onSizeChanged(w, h, oldw, oldh);
+		mQuadTree.reset(0, 0, w, h);
+
+		//layout之前添加的贴图现在才能放到中心
+		for(int i = 0; i < mStickers.size(); i++){
+			Sticker sticker = mStickers.get(i);
+			if(sticker.mCenterPending){
+				sticker.mEngine.setCenter(w / 2, h / 2);
+				sticker.mCenterPending = false;
+				updateSticker(sticker);
+			}
+		}
+	}
+
+
+	/**
+	 * 添加一张贴图，放在View的中心，位于最上层
+	 * @param bitmap
+	 * @return
+	 */
+	public Sticker addSticker(Bitmap bitmap){
+		return addSticker(bitmap, 0);
+	}
+
+
+	/**
+	 * 添加一张贴图，放在View的中心，位于最上层. View还没有layout时(比如在onCreate()中添加)，
+	 * 等View有了大小之后再放到中心
+	 * @param bitmap
+	 * @param imageId 图片的标识，保存之后通过{@link BitmapResolver}恢复图片
+	 * @return
+	 */
+	public Sticker addSticker(Bitmap bitmap, int imageId){
+		int width = getWidth();
+		int height = getHeight();
+		Sticker sticker = addSticker(bitmap, imageId, width / 2, height / 2);
+		sticker.mCenterPending = width == 0 || height == 0;
+		return sticker;
+	}
+
+
+	/**
+	 * 添加一张贴图，中心放在指定的位置，位于最上层
+	 * @param bitmap
+	 * @param imageId 图片的标识，保存之后通过{@link BitmapResolver}恢复图片
+	 * @param centerX 相对于StickerView而言
+	 * @param centerY
+	 * @return
+	 */
+	public Sticker addSticker(Bitmap bitmap, int imageId, float centerX, float centerY){
+		Sticker sticker = new Sticker(bitmap);
+		sticker.setImageId(imageId);
+		sticker.mEngine.setCenter(centerX, centerY);
+		sticker.mEngine.setFramePadding(framePadding);
+		sticker.mEngine.setControlSize(mDrawableWidth, mDrawableHeight);
+		sticker.mEngine.setControlLocation(controlLocation);
+		sticker.update();
+
+		sticker.mIndex = mStickers.size();
+		mStickers.add(sticker);
+		RectF bounds = sticker.mBounds;
+		sticker.mEntry = mQuadTree.insert(sticker, bounds.left, bounds.top, bounds.right, bounds.bottom);
+
+		invalidateRegion(bounds);
+		return sticker;
+	}
+
+
+	public void removeSticker(Sticker sticker){
+		if(!mStickers.remove(sticker)) return;
+		cancelAnimation(sticker);
+		mQuadTree.remove(sticker.mEntry);
+		sticker.mEntry = null;
+
+		for(int i = sticker.mIndex; i < mStickers.size(); i++){
+			mStickers.get(i).mIndex = i;
+		}
+
+		if(mSelectedSticker == sticker){
+			mSelectedSticker = null;
+		}
+		invalidateRegion(sticker.mBounds);
+	}
+
+
+	/**
+	 * 按照层级从下往上保存所有贴图的状态，格式参考{@link StickerSnapshot}
+	 * @param output 不会被关闭
+	 * @throws IOException
+	 */
+	public void saveStickers(OutputStream output) throws IOException{
+		List<StickerSnapshot> snapshots = new ArrayList<StickerSnapshot>(mStickers.size());
+		//外边框按dp保存，换了密度不同的设备也是同样大小
+		float density = getResources().getDisplayMetrics().density;
+		for(int i = 0; i < mStickers.size(); i++){
+			Sticker sticker = mStickers.get(i);
+			StickerSnapshot snapshot = new StickerSnapshot();
+			snapshot.centerX = sticker.getCenterX();
+			snapshot.centerY = sticker.getCenterY();
+			snapshot.degree = sticker.getDegree();
+			snapshot.scale = sticker.getScale();
+			snapshot.imageId = sticker.getImageId();
+			snapshot.controlLocation = controlLocation;
+			snapshot.framePadding = framePadding / density;
+			snapshot.frameWidth = mFramePaint.getStrokeWidth() / density;
+			snapshot.frameColor = mFramePaint.getColor();
+			snapshots.add(snapshot);
+		}
+		StickerSnapshot.writeAll(snapshots, output);
+	}
+
+
+	/**
+	 * 清空当前的贴图，恢复{@link #saveStickers(OutputStream)}保存的贴图. 
+	 * 边框和控制图标是StickerView共用的，不从记录中恢复
+	 * @param input 不会被关闭
+	 * @param resolver 根据imageId提供图片
+	 * @throws IOException
+	 */
+	public void restoreStickers(InputStream input, BitmapResolver resolver) throws IOException{
+		List<StickerSnapshot> snapshots = StickerSnapshot.readAll(input);
+
+		for(int i = mStickers.size() - 1; i >= 0; i--){
+			removeSticker(mStickers.get(i));
+		}
+
+		for(int i = 0; i < snapshots.size(); i++){
+			StickerSnapshot snapshot = snapshots.get(i);
+			Bitmap bitmap = resolver.getBitmap(snapshot.imageId);
+			if(bitmap == null) continue;
+
+			Sticker sticker = addSticker(bitmap, snapshot.imageId, snapshot.centerX, snapshot.centerY);
+			sticker.mEngine.setDegree(snapshot.degree);
+			sticker.mEngine.setScale(snapshot.scale);
+			updateSticker(sticker);
+		}
+	}
+
+
+	/**
+	 * 所有的贴图，按照层级从下往上排列. 返回的列表不能修改，通过addSticker(), removeSticker()增删
+	 */
+	public List<Sticker> getStickers() {
+		return Collections.unmodifiableList(mStickers);
+	}
+
+	public Sticker getSelectedSticker() {
+		return mSelectedSticker;
+	}
+
+	public void setSelectedSticker(Sticker sticker) {
+		if(mSelectedSticker == sticker)
+			return;
+		//只需刷新之前和现在选中贴图的边框区域
+		mDirtyRectF.setEmpty();
+		if(mSelectedSticker != null){
+			mDirtyRectF.set(mSelectedSticker.mBounds);
+		}
+		if(sticker != null){
+			mDirtyRectF.union(sticker.mBounds);
+		}
+		mSelectedSticker = sticker;
+		invalidateRegion(mDirtyRectF);
+	}
+
+
+	/**
+	 * 设置贴图中心点位置，相对于StickerView而言
+	 */
+	public void setStickerCenter(Sticker sticker, float x, float y){
+		sticker.mCenterPending = false;
+		sticker.mEngine.setCenter(x, y);
+		updateSticker(sticker);
+	}
+
+	/**
+	 * 设置贴图旋转角度
+	 */
+	public void setStickerDegree(Sticker sticker, float degree){
+		sticker.mEngine.setDegree(degree);
+		updateSticker(sticker);
+	}
+
+	/**
+	 * 设置贴图缩放比例
+	 */
+	public void setStickerScale(Sticker sticker, float scale){
+		sticker.mEngine.setScale(scale);
+		updateSticker(sticker);
+	}
+
+
+	/**
+	 * 以动画的方式移动贴图到指定的中心点，角度和缩放比例. 所有贴图的动画由同一个帧回调驱动，
+	 * 每一帧先更新所有贴图的状态，再逐个重新计算
+	 * @param sticker
+	 * @param x 中心点，相对于StickerView而言
+	 * @param y
+	 * @param degree 角度按数值插值
+	 * @param scale
+	 * @param duration 毫秒
+	 * @param interpolator 为null时使用DecelerateInterpolator
+	 */
+	public void animateSticker(final Sticker sticker, float x, float y, float degree, float scale,
+			long duration, Interpolator interpolator){
+		if(sticker.mAnimation == null){
+			sticker.mAnimation = new TransformAnimator.Animation(sticker.mEngine, new TransformAnimator.Callback() {
+
+				@Override
+				public void onAnimationFrame(TransformAnimator.Animation animation, boolean finished) {
+					updateSticker(sticker);
+				}
+			});
+		}
+		sticker.mCenterPending = false;
+		sticker.mAnimation.setTarget(x, y, degree, scale, duration, interpolator);
+		TransformAnimator.getInstance().start(sticker.mAnimation);
+	}
+
+
+	/**
+	 * 取消贴图的动画，停在当前的状态
+	 * @param sticker
+	 */
+	public void cancelAnimation(Sticker sticker){
+		if(sticker.mAnimation != null){
+			TransformAnimator.getInstance().cancel(sticker.mAnimation);
+		}
+	}
+
+
+	/**
+	 * 贴图变换之后重新计算并更新四叉树，只刷新变换前后外接矩形合并之后的区域
+	 */
+	private void updateSticker(Sticker sticker){
+		mDirtyRectF.set(sticker.mBounds);
+		sticker.update();
+		RectF bounds = sticker.mBounds;
+		mDirtyRectF.union(bounds);
+		mQuadTree.update(sticker.mEntry, bounds.left, bounds.top, bounds.right, bounds.bottom);
+		invalidateRegion(mDirtyRectF);
+	}
+
+
+	/**
+	 * 刷新区域，扩大控制图标的一半和边框线宽，控制图标可能在任意一个点上
+	 * @param region
+	 */
+	private void invalidateRegion(RectF region){
+		if(region.isEmpty()) return;
+		region.roundOut(mDirtyRect);
+		int strokeWidth = (int) Math.ceil(mFramePaint.getStrokeWidth());
+		mDirtyRect.inset(-(mDrawableWidth / 2 + strokeWidth), -(mDrawableHeight / 2 + strokeWidth));
+		invalidate(mDirtyRect);
+	}
+
+
+	@Override
+	protected void onDraw(Canvas canvas) {
+		super.onDraw(canvas);
+
+		for(int i = 0; i < mStickers.size(); i++){
+			Sticker sticker = mStickers.get(i);
+			if(sticker.getBitmap() == null) continue;
+			canvas.drawBitmap(sticker.getBitmap(), sticker.mMatrix, mBitmapPaint);
+		}
+
+		//只给选中的贴图画边框和控制图标
+		Sticker selected = mSelectedSticker;
+		if(selected != null && selected.getBitmap() != null){
+			float[] points = selected.mPoints;
+			mPath.reset();
+			mPath.moveTo(points[0], points[1]);
+			mPath.lineTo(points[2], points[3]);
+			mPath.lineTo(points[4], points[5]);
+			mPath.lineTo(points[6], points[7]);
+			mPath.close();
+			canvas.drawPath(mPath, mFramePaint);
+
+			int index = controlLocation * 2;
+			int controlX = (int) points[index];
+			int controlY = (int) points[index + 1];
+			controlDrawable.setBounds(controlX - mDrawableWidth / 2,
+					controlY - mDrawableHeight / 2, controlX + mDrawableWidth
+							/ 2, controlY + mDrawableHeight / 2);
+			controlDrawable.draw(canvas);
+		}
+	}
+
+
+	@Override
+	public boolean onTouchEvent(MotionEvent event) {
+		float x = event.getX();
+		float y = event.getY();
+
+		switch (event.getAction()) {
+		case MotionEvent.ACTION_DOWN:
+			mStatus = judgeStatus(x, y);
+			if(mStatus == SingleTouchView.STATUS_INIT){
+				setSelectedSticker(null);
+				return false;
+			}
+			cancelAnimation(mSelectedSticker);
+			mPreMoveX = x;
+			mPreMoveY = y;
+			break;
+		case MotionEvent.ACTION_UP:
+		case MotionEvent.ACTION_CANCEL:
+			mStatus = SingleTouchView.STATUS_INIT;
+			break;
+		case MotionEvent.ACTION_MOVE:
+			Sticker sticker = mSelectedSticker;
+			if(sticker == null) break;
+			if(mStatus == SingleTouchView.STATUS_ROTATE_ZOOM){
+				sticker.mEngine.rotateZoom(mPreMoveX, mPreMoveY, x, y);
+				updateSticker(sticker);
+			}else if(mStatus == SingleTouchView.STATUS_DRAG){
+				sticker.mEngine.drag(x - mPreMoveX, y - mPreMoveY);
+				updateSticker(sticker);
+			}
+			mPreMoveX = x;
+			mPreMoveY = y;
+			break;
+		}
+		return true;
+	}
+
+
+	/**
+	 * 根据按下的位置判断状态，先判断选中贴图的控制图标，再通过四叉树找到最上层包含该点的贴图
+	 * @param x
+	 * @param y
+	 * @return
+	 */
+	private int judgeStatus(float x, float y){
+		if(mSelectedSticker != null && mSelectedSticker.hitControl(x, y)){
+			return SingleTouchView.STATUS_ROTATE_ZOOM;
+		}
+
+		Sticker hit = findStickerAt(x, y);
+		if(hit != null){
+			setSelectedSticker(hit);
+			return SingleTouchView.STATUS_DRAG;
+		}
+		return SingleTouchView.STATUS_INIT;
+	}
+
+
+	/**
+	 * 找到包含点(x, y)的最上层贴图
+	 * @param x
+	 * @param y
+	 * @return 没有则返回null
+	 */
+	public Sticker findStickerAt(float x, float y){
+		mQuadTree.query(x, y, mHitCandidates);
+
+		Sticker top = null;
+		for(int i = 0; i < mHitCandidates.size(); i++){
+			Sticker candidate = mHitCandidates.get(i);
+			if((top == null || candidate.mIndex > top.mIndex) && candidate.hitImage(x, y)){
+				top = candidate;
+			}
+		}
+		mHitCandidates.clear();
+		return top;
+	}
+
+
+	public int getFrameColor() {
+		return mFramePaint.getColor();
+	}
+
+	public void setFrameColor(int frameColor) {
+		mFramePaint.setColor(frameColor);
+		invalidate();
+	}
+
+	public Drawable getControlDrawable() {
+		return controlDrawable;
+	}
+
+	/**
+	 * 设置控制图标
+	 * @param drawable
+	 */
+	public void setControlDrawable(Drawable drawable) {
+		this.controlDrawable = drawable;
+		mDrawableWidth = drawable.getIntrinsicWidth();
+		mDrawableHeight = drawable.getIntrinsicHeight();
+		for(int i = 0; i < mStickers.size(); i++){
+			Sticker sticker = mStickers.get(i);
+			sticker.mEngine.setControlSize(mDrawableWidth, mDrawableHeight);
+			updateSticker(sticker);
+		}
+	}
+
+	public int getControlLocation() {
+		return controlLocation;
+	}
+
+	/**
+	 * 设置控制图标的位置, 设置的值只能选择LEFT_TOP ，RIGHT_TOP， RIGHT_BOTTOM，LEFT_BOTTOM
+	 * @param location
+	 */
+	public void setControlLocation(int location) {
+		if(this.controlLocation == location)
+			return;
+		this.controlLocation = location;
+		for(int i = 0; i < mStickers.size(); i++){
+			Sticker sticker = mStickers.get(i);
+			sticker.mEngine.setControlLocation(location);
+			updateSticker(sticker);
+		}
+	}
+
+}
@@ -0,0 +1,400 @@
+package com.example.singletouchview;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.util.LruCache;
+
+/**
+ * 大图的分块解码. 平时只显示一张缩小的底图，放大到底图的分辨率不够时，通过BitmapRegionDecoder只解码
+ * 当前可见的那些块，解码的采样率刚好满足当前的缩放比例. 解码在后台线程中进行，完成之前仍然显示底图，
+ * 解码出来的块放在所有大图共用的LRU缓存中，不需要把整张原图读进内存.
+ * BitmapRegionDecoder在API 10以上才有，低版本不能使用这个类. 除了解码之外的方法只能在UI线程中调用
+ *
+ * @author xiaanming
+ *
+ */
+public class TiledBitmap {
+	/**
+	 * 每一块解码之后的宽高
+	 */
+	public static final int TILE_SIZE = 256;
+
+	private static LruCache<TileKey, Bitmap> sTiles;
+
+	/**
+	 * 分配给每个大图的id, 块缓存的key只保存id, 静态缓存不会持有大图(以及回调引用的View和Activity)
+	 */
+	private static final AtomicInteger sNextId = new AtomicInteger();
+
+	private static ExecutorService sExecutor;
+
+	private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+
+	/**
+	 * 原图打开或者有新的块解码完成时在UI线程中回调，需要重新画
+	 */
+	public interface Callback {
+		void onTilesChanged(TiledBitmap tiledBitmap);
+	}
+
+
+	/**
+	 * 缓存的key, 由所属大图的id，采样率和块的位置组成
+	 */
+	private static final class TileKey {
+		private int owner;
+		private int sampleSize;
+		private int column;
+		private int row;
+
+		private TileKey set(int owner, int sampleSize, int column, int row){
+			this.owner = owner;
+			this.sampleSize = sampleSize;
+			this.column = column;
+			this.row = row;
+			return this;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if(this == o) return true;
+			if(!(o instanceof TileKey)) return false;
+			TileKey other = (TileKey) o;
+			return owner == other.owner && sampleSize == other.sampleSize
+					&& column == other.column && row == other.row;
+		}
+
+		@Override
+		public int hashCode() {
+			return ((owner * 31 + sampleSize) * 31 + column) * 31 + row;
+		}
+	}
+
+
+	private final int mId = sNextId.incrementAndGet();
+	private final Context mContext;
+	private final Uri mUri;
+	private final Callback mCallback;
+
+	/**
+	 * 在后台线程中打开，打开之前为null
+	 */
+	private volatile BitmapRegionDecoder mDecoder;
+	private int mSourceWidth, mSourceHeight;
+	private volatile boolean mReleased;
+
+	/**
+	 * 当前画的采样率，后台还没有开始的其他采样率的块不再解码
+	 */
+	private volatile int mCurrentSampleSize;
+
+	/**
+	 * 已经提交解码还没有完成的块
+	 */
+	private final HashSet<TileKey> mPending = new HashSet<TileKey>();
+
+	/**
+	 * 画图时复用的对象，查询缓存时使用mProbe, 只有提交解码时才创建新的key
+	 */
+	private final TileKey mProbe = new TileKey();
+	private final Matrix mInverse = new Matrix();
+	private final RectF mVisible = new RectF();
+	private final RectF mTileDst = new RectF();
+
+
+	private TiledBitmap(Context context, Uri uri, Callback callback) {
+		this.mContext = context.getApplicationContext();
+		this.mUri = uri;
+		this.mCallback = callback;
+	}
+
+
+	/**
+	 * 在后台线程中打开Uri指向的原图，打开之前draw()什么都不画
+	 * @param context
+	 * @param uri
+	 * @param callback
+	 * @return
+	 */
+	public static TiledBitmap open(Context context, Uri uri, Callback callback){
+		final TiledBitmap tiledBitmap = new TiledBitmap(context, uri, callback);
+		getExecutor().execute(new Runnable() {
+
+			@Override
+			public void run() {
+				tiledBitmap.openDecoder();
+			}
+		});
+		return tiledBitmap;
+	}
+
+
+	private void openDecoder(){
+		if(mReleased) return;
+
+		BitmapRegionDecoder decoder = null;
+		try {
+			InputStream input = mContext.getContentResolver().openInputStream(mUri);
+			if(input == null) return;
+			try {
+				decoder = BitmapRegionDecoder.newInstance(input, false);
+			} finally {
+				input.close();
+			}
+		} catch (IOException e) {
+			decoder = null;
+		}
+		if(decoder == null) return;
+
+		final BitmapRegionDecoder result = decoder;
+		sMainHandler.post(new Runnable() {
+
+			@Override
+			public void run() {
+				if(mReleased){
+					recycleDecoder(result);
+					return;
+				}
+				mSourceWidth = result.getWidth();
+				mSourceHeight = result.getHeight();
+				mDecoder = result;
+				mCallback.onTilesChanged(TiledBitmap.this);
+			}
+		});
+	}
+
+
+	/**
+	 * 原图是否已经打开
+	 */
+	public boolean isReady(){
+		return mDecoder != null;
+	}
+
+	public Uri getUri() {
+		return mUri;
+	}
+
+	public int getSourceWidth() {
+		return mSourceWidth;
+	}
+
+	public int getSourceHeight() {
+		return mSourceHeight;
+	}
+
+
+	/**
+	 * 在底图上面画出可见区域内已经解码的块，还没有解码的块提交到后台解码
+	 * @param canvas
+	 * @param matrix 底图的变换
+	 * @param scale 底图当前的缩放比例
+	 * @param baseWidth 底图的宽
+	 * @param baseHeight 底图的高
+	 * @param visibleRect canvas坐标中可见的区域
+	 * @param paint
+	 */
+	public void draw(Canvas canvas, Matrix matrix, float scale, int baseWidth, int baseHeight,
+			Rect visibleRect, Paint paint){
+		if(mDecoder == null || baseWidth <= 0 || baseHeight <= 0 || scale <= 1) return;
+
+		float ratioX = (float) mSourceWidth / baseWidth;
+		float ratioY = (float) mSourceHeight / baseHeight;
+		int sampleSize = getSampleSize(ratioX / scale);
+		//底图的分辨率已经够用
+		if(sampleSize >= ratioX) return;
+		mCurrentSampleSize = sampleSize;
+
+		//可见区域对应的原图区域
+		if(!matrix.invert(mInverse)) return;
+		mVisible.set(visibleRect);
+		mInverse.mapRect(mVisible);
+		float left = Math.max(0, mVisible.left * ratioX);
+		float top = Math.max(0, mVisible.top * ratioY);
+		float right = Math.min(mSourceWidth, mVisible.right * ratioX);
+		float bottom = Math.min(mSourceHeight, mVisible.bottom * ratioY);
+		if(left >= right || top >= bottom) return;
+
+		int tileSource = TILE_SIZE * sampleSize;
+		int firstColumn = (int) (left / tileSource);
+		int lastColumn = (int) ((right - 1) / tileSource);
+		int firstRow = (int) (top / tileSource);
+		int lastRow = (int) ((bottom - 1) / tileSource);
+
+		LruCache<TileKey, Bitmap> tiles = getTiles();
+		int saveCount = canvas.save();
+		canvas.concat(matrix);
+		for(int row = firstRow; row <= lastRow; row++){
+			for(int column = firstColumn; column <= lastColumn; column++){
+				Bitmap tile = tiles.get(mProbe.set(mId, sampleSize, column, row));
+				if(tile == null){
+					requestTile(sampleSize, column, row);
+					continue;
+				}
+
+				//块在底图坐标中的位置
+				mTileDst.set(column * tileSource / ratioX, row * tileSource / ratioY,
+						Math.min(mSourceWidth, (column + 1) * tileSource) / ratioX,
+						Math.min(mSourceHeight, (row + 1) * tileSource) / ratioY);
+				canvas.drawBitmap(tile, null, mTileDst, paint);
+			}
+		}
+		canvas.restoreToCount(saveCount);
+	}
+
+
+	/**
+	 * 能满足每个屏幕像素对应sourcePerPixel个原图像素的最大的2的幂次采样率
+	 */
+	private static int getSampleSize(float sourcePerPixel){
+		int sampleSize = 1;
+		while(sampleSize * 2 <= sourcePerPixel){
+			sampleSize *= 2;
+		}
+		return sampleSize;
+	}
+
+
+	private void requestTile(int sampleSize, int column, int row){
+		if(mPending.contains(mProbe)) return;
+
+		final TileKey key = new TileKey().set(mId, sampleSize, column, row);
+		mPending.add(key);
+		getExecutor().execute(new Runnable() {
+
+			@Override
+			public void run() {
+				final Bitmap tile = decodeTile(key);
+				sMainHandler.post(new Runnable() {
+
+					@Override
+					public void run() {
+						mPending.remove(key);
+						if(tile == null || mReleased) return;
+						getTiles().put(key, tile);
+						mCallback.onTilesChanged(TiledBitmap.this);
+					}
+				});
+			}
+		});
+	}
+
+
+	/**
+	 * 在后台线程中解码一块，已经不需要的块直接跳过
+	 */
+	private Bitmap decodeTile(TileKey key){
+		BitmapRegionDecoder decoder = mDecoder;
+		if(mReleased || decoder == null || key.sampleSize != mCurrentSampleSize) return null;
+
+		int tileSource = TILE_SIZE * key.sampleSize;
+		Rect region = new Rect(key.column * tileSource, key.row * tileSource,
+				Math.min(mSourceWidth, (key.column + 1) * tileSource),
+				Math.min(mSourceHeight, (key.row + 1) * tileSource));
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inSampleSize = key.sampleSize;
+		try {
+			return decoder.decodeRegion(region, options);
+		} catch (OutOfMemoryError e) {
+			return null;
+		} catch (IllegalArgumentException e) {
+			//解码器已经被回收
+			return null;
+		}
+	}
+
+
+	/**
+	 * 移除该大图缓存的块，原图保持打开，之后画的时候重新解码
+	 */
+	public void clearTiles(){
+		LruCache<TileKey, Bitmap> tiles = getTiles();
+		for(TileKey key : tiles.snapshot().keySet()){
+			if(key.owner == mId){
+				tiles.remove(key);
+			}
+		}
+	}
+
+
+	/**
+	 * 不再使用时调用，移除缓存的块，关闭原图
+	 */
+	public void release(){
+		if(mReleased) return;
+		mReleased = true;
+		clearTiles();
+
+		final BitmapRegionDecoder decoder = mDecoder;
+		mDecoder = null;
+		if(decoder != null){
+			recycleDecoder(decoder);
+		}
+	}
+
+
+	/**
+	 * 在解码线程中回收，等待已经开始的解码完成
+	 */
+	private static void recycleDecoder(final BitmapRegionDecoder decoder){
+		getExecutor().execute(new Runnable() {
+
+			@Override
+			public void run() {
+				decoder.recycle();
+			}
+		});
+	}
+
+
+	private static LruCache<TileKey, Bitmap> getTiles(){
+		if(sTiles == null){
+			sTiles = new LruCache<TileKey, Bitmap>(MemoryBudget.getTileCacheBytes()){
+				@Override
+				protected int sizeOf(TileKey key, Bitmap value) {
+					return value.getRowBytes() * value.getHeight();
+				}
+			};
+		}
+		return sTiles;
+	}
+
+
+	/**
+	 * 所有大图共用一个解码线程，BitmapRegionDecoder内部的解码也是串行的
+	 */
+	private static synchronized ExecutorService getExecutor(){
+		if(sExecutor == null){
+			sExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "TiledBitmap");
+					thread.setDaemon(true);
+					thread.setPriority(Thread.MIN_PRIORITY);
+					return thread;
+				}
+			});
+		}
+		return sExecutor;
+	}
+
+}
@@ -0,0 +1,346 @@
+package com.example.singletouchview;
+
+import java.util.Arrays;
+
+import android.os.Build;
+import android.os.Debug;
+import android.os.Trace;
+
+/**
+ * SingleTouchView各个阶段的耗时统计和计数，默认关闭，通过SingleTouchView.setMetrics()开启.
+ * 每个阶段保存最近的若干个耗时样本，可以计算p50, p95, p99，同时输出android.os.Trace区段(API 18以上).
+ * 开启{@link #setTrackAllocations(boolean)}之后还会统计每个阶段中当前线程的对象分配次数，
+ * 预热之后调用{@link #reset()}，再检查触摸和绘制阶段的分配次数是否为0，可以发现热路径中重新引入的内存分配.
+ * 手势，惯性滑动或者动画进行中连续两帧的间隔记为帧间隔，超过帧预算的1.5倍(至少丢了一帧)记为一次卡顿;
+ * {@link #isWithinBudget(int, float)}检查某个阶段的百分位CPU耗时是否在帧预算之内
+ *
+ * @author xiaanming
+ *
+ */
+public class TouchMetrics {
+	/**
+	 * 统计耗时的阶段
+	 */
+	public static final int STAGE_TOUCH_EVENT = 0;
+	public static final int STAGE_JUDGE_STATUS = 1;
+	public static final int STAGE_TRANSFORM = 2;
+	public static final int STAGE_ADJUST_LAYOUT = 3;
+	public static final int STAGE_DRAW = 4;
+	public static final int STAGE_COUNT = 5;
+
+	/**
+	 * 计数器
+	 */
+	public static final int COUNTER_LAYOUT = 0;
+	public static final int COUNTER_INVALIDATE = 1;
+	public static final int COUNTER_BITMAP_CONVERSION = 2;
+	public static final int COUNTER_COUNT = 3;
+
+	/**
+	 * 每个阶段默认保存的样本数
+	 */
+	public static final int DEFAULT_CAPACITY = 256;
+
+	/**
+	 * 默认每隔多少帧回调一次Listener
+	 */
+	public static final int DEFAULT_REPORT_INTERVAL = 60;
+
+	/**
+	 * 默认的帧预算，60fps下一帧的时间(纳秒)
+	 */
+	public static final long DEFAULT_FRAME_BUDGET = 16666667L;
+
+	/**
+	 * 帧间隔超过帧预算的多少倍记为卡顿，留出垂直同步的抖动
+	 */
+	private static final float JANK_FACTOR = 1.5f;
+
+	private static final String[] STAGE_NAMES = {
+		"SingleTouchView#onTouchEvent",
+		"SingleTouchView#JudgeStatus",
+		"SingleTouchView#transformDraw",
+		"SingleTouchView#adjustLayout",
+		"SingleTouchView#onDraw",
+	};
+
+	private static final boolean TRACE_ENABLED = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2;
+
+	/**
+	 * 定期回调统计结果
+	 */
+	public interface Listener {
+		/**
+		 * 在UI线程中回调，可以通过getPercentile()，getCount()读取统计结果
+		 * @param metrics
+		 */
+		void onMetricsReport(TouchMetrics metrics);
+	}
+
+	/**
+	 * 每个阶段的耗时样本(纳秒)，循环覆盖
+	 */
+	private final long[][] mSamples;
+	private final long[] mSampleCount = new long[STAGE_COUNT];
+	private final long[] mSortBuffer;
+
+	private final long[] mCounters = new long[COUNTER_COUNT];
+
+	/**
+	 * 每个阶段开始时线程的分配次数，以及每个阶段累计的分配次数
+	 */
+	private boolean mTrackAllocations;
+	private final int[] mAllocationStart = new int[STAGE_COUNT];
+	private final long[] mAllocations = new long[STAGE_COUNT];
+
+	private long mFrameCount;
+	private long mFrameBudget = DEFAULT_FRAME_BUDGET;
+	private long mJankCount;
+
+	/**
+	 * 连续运动中的帧间隔(纳秒)，循环覆盖
+	 */
+	private final long[] mFrameIntervals;
+	private long mFrameIntervalCount;
+	private long mLastFrameNanos;
+	private boolean mLastFrameInMotion;
+	private int mReportInterval = DEFAULT_REPORT_INTERVAL;
+	private Listener mListener;
+
+
+	public TouchMetrics() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param capacity 每个阶段保存的样本数
+	 */
+	public TouchMetrics(int capacity) {
+		mSamples = new long[STAGE_COUNT][capacity];
+		mFrameIntervals = new long[capacity];
+		mSortBuffer = new long[capacity];
+	}
+
+
+	public void setListener(Listener listener) {
+		this.mListener = listener;
+	}
+
+	/**
+	 * 设置每隔多少帧回调一次Listener
+	 * @param frames
+	 */
+	public void setReportInterval(int frames) {
+		this.mReportInterval = Math.max(1, frames);
+	}
+
+
+	/**
+	 * 开始一个阶段
+	 * @param stage
+	 * @return 开始时间，传给{@link #end(int, long)}
+	 */
+	public long begin(int stage){
+		if(TRACE_ENABLED){
+			Trace.beginSection(STAGE_NAMES[stage]);
+		}
+		if(mTrackAllocations){
+			mAllocationStart[stage] = Debug.getThreadAllocCount();
+		}
+		return System.nanoTime();
+	}
+
+
+	/**
+	 * 结束一个阶段，记录耗时
+	 * @param stage
+	 * @param startNanos {@link #begin(int)}的返回值
+	 */
+	public void end(int stage, long startNanos){
+		long duration = System.nanoTime() - startNanos;
+		if(mTrackAllocations){
+			mAllocations[stage] += Debug.getThreadAllocCount() - mAllocationStart[stage];
+		}
+		if(TRACE_ENABLED){
+			Trace.endSection();
+		}
+
+		long[] samples = mSamples[stage];
+		samples[(int) (mSampleCount[stage] % samples.length)] = duration;
+		mSampleCount[stage]++;
+	}
+
+
+	/**
+	 * 设置帧预算(一次垂直同步的时间)，连续运动中帧间隔超过预算的1.5倍记为一次卡顿
+	 * @param nanos
+	 */
+	public void setFrameBudget(long nanos){
+		this.mFrameBudget = nanos;
+	}
+
+	public long getFrameBudget(){
+		return mFrameBudget;
+	}
+
+
+	/**
+	 * 连续运动中帧间隔超出预算的次数
+	 */
+	public long getJankCount(){
+		return mJankCount;
+	}
+
+
+	/**
+	 * 某个阶段的百分位CPU耗时是否在帧预算之内，没有样本时返回true
+	 * @param stage
+	 * @param percentile 0 - 100
+	 * @return
+	 */
+	public boolean isWithinBudget(int stage, float percentile){
+		return getPercentile(stage, percentile) <= mFrameBudget;
+	}
+
+
+	/**
+	 * 设置是否统计每个阶段的对象分配次数，开启之后会通过Debug.startAllocCounting()开始全局的分配计数，
+	 * 有一定开销，只在调试和测试时使用
+	 * @param track
+	 */
+	public void setTrackAllocations(boolean track){
+		if(mTrackAllocations == track) return;
+		mTrackAllocations = track;
+		if(track){
+			Debug.startAllocCounting();
+		}else{
+			Debug.stopAllocCounting();
+		}
+	}
+
+	public boolean isTrackAllocations(){
+		return mTrackAllocations;
+	}
+
+
+	public void count(int counter){
+		mCounters[counter]++;
+	}
+
+
+	/**
+	 * 一帧画完，达到回调间隔时通知Listener
+	 * @param inMotion 是否处于手势，惯性滑动或者动画中(下一帧应该紧接着到来), 
+	 * 只有连续两帧都在运动中才记录帧间隔，静止之后的第一帧不算卡顿
+	 */
+	public void onFrame(boolean inMotion){
+		long now = System.nanoTime();
+		if(inMotion && mLastFrameInMotion){
+			long interval = now - mLastFrameNanos;
+			mFrameIntervals[(int) (mFrameIntervalCount % mFrameIntervals.length)] = interval;
+			mFrameIntervalCount++;
+			if(interval > mFrameBudget * JANK_FACTOR){
+				mJankCount++;
+			}
+		}
+		mLastFrameNanos = now;
+		mLastFrameInMotion = inMotion;
+
+		mFrameCount++;
+		if(mListener != null && mFrameCount % mReportInterval == 0){
+			mListener.onMetricsReport(this);
+		}
+	}
+
+
+	/**
+	 * 某个阶段最近样本的百分位耗时
+	 * @param stage
+	 * @param percentile 0 - 100, 比如50, 95, 99
+	 * @return 纳秒，没有样本时返回0
+	 */
+	public long getPercentile(int stage, float percentile){
+		return percentile(mSamples[stage], mSampleCount[stage], percentile);
+	}
+
+
+	/**
+	 * 连续运动中最近帧间隔的百分位
+	 * @param percentile 0 - 100
+	 * @return 纳秒，没有样本时返回0
+	 */
+	public long getFrameIntervalPercentile(float percentile){
+		return percentile(mFrameIntervals, mFrameIntervalCount, percentile);
+	}
+
+
+	public long getFrameIntervalCount(){
+		return mFrameIntervalCount;
+	}
+
+
+	/**
+	 * 最近一帧onDraw结束的时间(System.nanoTime())，还没有画过时返回0
+	 */
+	public long getLastFrameNanos(){
+		return mLastFrameNanos;
+	}
+
+
+	private long percentile(long[] samples, long count, float percentile){
+		int size = (int) Math.min(count, samples.length);
+		if(size == 0) return 0;
+
+		System.arraycopy(samples, 0, mSortBuffer, 0, size);
+		Arrays.sort(mSortBuffer, 0, size);
+
+		int index = (int) Math.ceil(percentile / 100 * size) - 1;
+		return mSortBuffer[Math.max(0, Math.min(size - 1, index))];
+	}
+
+
+	/**
+	 * 某个阶段总共执行的次数
+	 */
+	public long getSampleCount(int stage){
+		return mSampleCount[stage];
+	}
+
+
+	/**
+	 * 某个阶段累计的对象分配次数(包括嵌套在其中的阶段)，没有开启{@link #setTrackAllocations(boolean)}时为0
+	 */
+	public long getAllocationCount(int stage){
+		return mAllocations[stage];
+	}
+
+
+	public long getCount(int counter){
+		return mCounters[counter];
+	}
+
+
+	public long getFrameCount(){
+		return mFrameCount;
+	}
+
+
+	public static String getStageName(int stage){
+		return STAGE_NAMES[stage];
+	}
+
+
+	/**
+	 * 清空所有样本和计数
+	 */
+	public void reset(){
+		Arrays.fill(mSampleCount, 0);
+		Arrays.fill(mCounters, 0);
+		Arrays.fill(mAllocations, 0);
+		mFrameCount = 0;
+		mJankCount = 0;
+		mFrameIntervalCount = 0;
+		mLastFrameInMotion = false;
+	}
+
+}
@@ -0,0 +1,244 @@
+package com.example.singletouchview;
+
+import java.util.ArrayList;
+
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.view.Choreographer;
+import android.view.animation.DecelerateInterpolator;
+import android.view.animation.Interpolator;
+
+/**
+ * 所有贴图共用的动画驱动，只能在UI线程中使用. 每帧只有一个回调，先把所有正在运行的动画的状态写入各自的
+ * TransformEngine，再统一通知每个贴图应用一次变换，N个贴图的动画不需要N个ValueAnimator.
+ * 动画可以是到目标状态的插值，也可以是抬起手指之后的惯性滑动({@link TransformFling}).
+ * API 16以上由Choreographer驱动，低版本使用Handler
+ *
+ * @author xiaanming
+ *
+ */
+public final class TransformAnimator {
+	/**
+	 * 没有Choreographer时两帧之间的间隔
+	 */
+	private static final long FRAME_DELAY = 10;
+
+	private static final Interpolator DEFAULT_INTERPOLATOR = new DecelerateInterpolator();
+
+	private static TransformAnimator sInstance;
+
+	/**
+	 * 每一帧动画的状态写入engine之后回调，在回调中应用变换
+	 */
+	public interface Callback {
+		/**
+		 * @param animation
+		 * @param finished 是否是最后一帧
+		 */
+		void onAnimationFrame(Animation animation, boolean finished);
+	}
+
+
+	/**
+	 * 一个贴图的动画，可以反复使用
+	 */
+	public static final class Animation {
+		private final TransformEngine engine;
+		private final Callback callback;
+
+		private float fromX, fromY, fromDegree, fromScale;
+		private float toX, toY, toDegree, toScale;
+		private long startTime;
+		private long duration;
+		private Interpolator interpolator;
+
+		/**
+		 * 不为null时是惯性滑动，每帧由它推进engine，停止时动画结束
+		 */
+		private TransformFling fling;
+		private boolean running;
+		private boolean finished;
+
+		public Animation(TransformEngine engine, Callback callback) {
+			this.engine = engine;
+			this.callback = callback;
+		}
+
+		/**
+		 * 设置动画的目标，开始时从engine当前的状态出发，角度按数值插值(不取最短路径)
+		 * @param interpolator 为null时使用DecelerateInterpolator
+		 */
+		public void setTarget(float centerX, float centerY, float degree, float scale, long duration, Interpolator interpolator){
+			this.toX = centerX;
+			this.toY = centerY;
+			this.toDegree = degree;
+			this.toScale = scale;
+			this.duration = Math.max(0, duration);
+			this.interpolator = interpolator != null ? interpolator : DEFAULT_INTERPOLATOR;
+			this.fling = null;
+		}
+
+		/**
+		 * 改为惯性滑动，fling需要已经start(), 与SystemClock.uptimeMillis()使用相同的时钟
+		 * @param fling
+		 */
+		public void setFling(TransformFling fling){
+			this.fling = fling;
+		}
+
+		public boolean isRunning() {
+			return running;
+		}
+
+		/**
+		 * 把time时刻的状态写入engine
+		 */
+		private void update(long time){
+			if(fling != null){
+				finished = !fling.step(engine, time);
+				return;
+			}
+
+			float fraction = duration == 0 ? 1 : Math.min(1f, (float) (time - startTime) / duration);
+			finished = fraction >= 1;
+			float t = finished ? 1 : interpolator.getInterpolation(fraction);
+
+			engine.setCenter(fromX + (toX - fromX) * t, fromY + (toY - fromY) * t);
+			engine.setDegree(fromDegree + (toDegree - fromDegree) * t);
+			engine.setScale(fromScale + (toScale - fromScale) * t);
+		}
+	}
+
+
+	private final ArrayList<Animation> mAnimations = new ArrayList<Animation>();
+
+	/**
+	 * 当前帧处理的动画，回调中可能开始或者取消动画，不能直接遍历mAnimations
+	 */
+	private final ArrayList<Animation> mFrameAnimations = new ArrayList<Animation>();
+	private boolean mFrameScheduled;
+
+	private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+	private final Runnable mFrameRunnable = new Runnable() {
+
+		@Override
+		public void run() {
+			doFrame();
+		}
+	};
+
+	private final FrameScheduler mChoreographerScheduler;
+
+
+	private TransformAnimator() {
+		mChoreographerScheduler = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN
+				? new FrameScheduler(this) : null;
+	}
+
+
+	public static TransformAnimator getInstance(){
+		if(sInstance == null){
+			sInstance = new TransformAnimator();
+		}
+		return sInstance;
+	}
+
+
+	/**
+	 * 开始动画，正在运行的动画从当前的状态重新开始
+	 * @param animation
+	 */
+	public void start(Animation animation){
+		TransformEngine engine = animation.engine;
+		animation.fromX = engine.getCenterX();
+		animation.fromY = engine.getCenterY();
+		animation.fromDegree = engine.getDegree();
+		animation.fromScale = engine.getScale();
+		animation.startTime = SystemClock.uptimeMillis();
+		animation.finished = false;
+
+		if(!animation.running){
+			animation.running = true;
+			mAnimations.add(animation);
+		}
+		scheduleFrame();
+	}
+
+
+	/**
+	 * 取消动画，停在当前的状态
+	 * @param animation
+	 */
+	public void cancel(Animation animation){
+		if(!animation.running) return;
+		animation.running = false;
+		mAnimations.remove(animation);
+	}
+
+
+	private void scheduleFrame(){
+		if(mFrameScheduled) return;
+		mFrameScheduled = true;
+		if(mChoreographerScheduler != null){
+			mChoreographerScheduler.schedule();
+		}else{
+			mHandler.postDelayed(mFrameRunnable, FRAME_DELAY);
+		}
+	}
+
+
+	private void doFrame(){
+		mFrameScheduled = false;
+		long time = SystemClock.uptimeMillis();
+
+		//先更新所有的状态，再统一应用
+		ArrayList<Animation> animations = mFrameAnimations;
+		for(int i = 0; i < mAnimations.size(); i++){
+			Animation animation = mAnimations.get(i);
+			animation.update(time);
+			animations.add(animation);
+		}
+
+		for(int i = 0; i < animations.size(); i++){
+			Animation animation = animations.get(i);
+			//在这一帧之前的回调中被取消了
+			if(!animation.running) continue;
+
+			boolean finished = animation.finished;
+			if(finished){
+				cancel(animation);
+			}
+			animation.callback.onAnimationFrame(animation, finished);
+		}
+		animations.clear();
+
+		if(!mAnimations.isEmpty()){
+			scheduleFrame();
+		}
+	}
+
+
+	/**
+	 * Choreographer只在API 16以上存在，单独放在一个类中，低版本不会加载
+	 */
+	private static final class FrameScheduler implements Choreographer.FrameCallback {
+		private final TransformAnimator animator;
+
+		private FrameScheduler(TransformAnimator animator) {
+			this.animator = animator;
+		}
+
+		private void schedule(){
+			Choreographer.getInstance().postFrameCallback(this);
+		}
+
+		@Override
+		public void doFrame(long frameTimeNanos) {
+			animator.doFrame();
+		}
+	}
+
+}
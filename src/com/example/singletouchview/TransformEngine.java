@@ -0,0 +1,500 @@
+package com.example.singletouchview;
+
+/**
+ * SingleTouchView的缩放，旋转，平移计算核心，只使用基本类型，不依赖任何Android API，
+ * 可以直接在普通的JVM上运行
+ *
+ * @author xiaanming
+ *
+ */
+public class TransformEngine {
+	/**
+	 * 控制图标所在的四个点, 与SingleTouchView中的常量保持一致, 也是四个点在{@link #getCorners()}中的顺序
+	 */
+	public static final int LEFT_TOP = 0;
+	public static final int RIGHT_TOP = 1;
+	public static final int RIGHT_BOTTOM = 2;
+	public static final int LEFT_BOTTOM = 3;
+
+	/**
+	 * 吸附之后，离开吸附目标的距离超过吸附范围的多少倍才解除吸附，避免在边界附近来回跳动
+	 */
+	public static final float SNAP_HYSTERESIS = 2.0f;
+
+	/**
+	 * 控制点离中心点小于该距离时方向不稳定，不计算旋转
+	 */
+	private static final float MIN_ROTATE_RADIUS = 1.0f;
+
+	/**
+	 * 图片的宽和高(未缩放)
+	 */
+	private int mBitmapWidth, mBitmapHeight;
+
+	/**
+	 * 图片某个点到图片中心的距离(未缩放)，计算缩放比例时使用
+	 */
+	private float mBitmapToCenterDistance;
+
+	/**
+	 * 外边框与图片之间的间距
+	 */
+	private int mFramePadding;
+
+	/**
+	 * 缩放，旋转图标的宽和高
+	 */
+	private int mControlWidth, mControlHeight;
+
+	/**
+	 * 控制图标所在的位置
+	 */
+	private int mControlLocation = RIGHT_TOP;
+
+	/**
+	 * 中心点坐标，相对于父布局而言
+	 */
+	private float mCenterX, mCenterY;
+
+	/**
+	 * 旋转角度和缩放比例
+	 */
+	private float mDegree;
+	private float mScale = 1.0f;
+
+	/**
+	 * 旋转缩放时未经吸附的角度和缩放比例，吸附只影响mDegree和mScale
+	 */
+	private float mRawDegree;
+	private float mRawScale = 1.0f;
+
+	/**
+	 * 角度和缩放比例的吸附，默认关闭
+	 */
+	private final Snapper mDegreeSnapper = new Snapper();
+	private final Snapper mScaleSnapper = new Snapper();
+
+	/**
+	 * 缩放比例的界限
+	 */
+	private float mMinScale = 0.3f;
+	private float mMaxScale = 4.0f;
+
+	/**
+	 * 旋转之后四个点的坐标(x0, y0, x1, y1...)，顺序为左上，右上，右下，左下
+	 */
+	private final float[] mCorners = new float[8];
+
+	/**
+	 * Matrix的9个值，可以直接交给android.graphics.Matrix.setValues()
+	 */
+	private final float[] mMatrixValues = new float[9];
+
+	/**
+	 * Matrix的逆矩阵的前两行(a, b, c, d, e, f)，每次compute()时计算一次，用于把View中的点映射回图片坐标
+	 */
+	private final float[] mInverseValues = new float[6];
+
+	/**
+	 * 旋转之后的宽和高(不包括控制图标)
+	 */
+	private int mViewWidth, mViewHeight;
+
+	/**
+	 * 图片在旋转时x, y方向的偏移量
+	 */
+	private int mOffsetX, mOffsetY;
+
+
+	public void setBitmapSize(int width, int height){
+		if(mBitmapWidth == width && mBitmapHeight == height && mBitmapToCenterDistance > 0) return;
+		mBitmapWidth = width;
+		mBitmapHeight = height;
+
+		float halfBitmapWidth = width / 2;
+		float halfBitmapHeight = height / 2;
+		mBitmapToCenterDistance = (float) Math.sqrt(halfBitmapWidth * halfBitmapWidth + halfBitmapHeight * halfBitmapHeight);
+	}
+
+	public int getBitmapWidth() {
+		return mBitmapWidth;
+	}
+
+	public int getBitmapHeight() {
+		return mBitmapHeight;
+	}
+
+	public void setFramePadding(int framePadding){
+		mFramePadding = framePadding;
+	}
+
+	public void setControlSize(int width, int height){
+		mControlWidth = width;
+		mControlHeight = height;
+	}
+
+	public int getControlWidth() {
+		return mControlWidth;
+	}
+
+	public int getControlHeight() {
+		return mControlHeight;
+	}
+
+	public void setControlLocation(int location){
+		mControlLocation = location;
+	}
+
+	public void setScaleRange(float minScale, float maxScale){
+		mMinScale = minScale;
+		mMaxScale = maxScale;
+	}
+
+	public float getMinScale() {
+		return mMinScale;
+	}
+
+	public float getMaxScale() {
+		return mMaxScale;
+	}
+
+	public float getCenterX() {
+		return mCenterX;
+	}
+
+	public float getCenterY() {
+		return mCenterY;
+	}
+
+	public void setCenter(float x, float y){
+		mCenterX = x;
+		mCenterY = y;
+	}
+
+	public float getDegree() {
+		return mDegree;
+	}
+
+	public void setDegree(float degree) {
+		mDegree = degree;
+		mRawDegree = degree;
+		mDegreeSnapper.reset();
+	}
+
+	public float getScale() {
+		return mScale;
+	}
+
+	public void setScale(float scale) {
+		mScale = scale;
+		mRawScale = scale;
+		mScaleSnapper.reset();
+	}
+
+
+	/**
+	 * 旋转时吸附到step的整数倍(比如45表示0, 45, 90...)
+	 * @param step 吸附的间隔角度，小于等于0关闭吸附
+	 * @param tolerance 离吸附角度小于该值时吸附
+	 */
+	public void setDegreeSnap(float step, float tolerance){
+		mDegreeSnapper.set(step, tolerance);
+	}
+
+	/**
+	 * 缩放时吸附到step的整数倍(比如0.5表示0.5, 1.0, 1.5...)
+	 * @param step 吸附的间隔，小于等于0关闭吸附
+	 * @param tolerance 离吸附值小于该值时吸附
+	 */
+	public void setScaleSnap(float step, float tolerance){
+		mScaleSnapper.set(step, tolerance);
+	}
+
+
+	/**
+	 * 根据当前的角度和缩放比例计算四个点, View的大小和Matrix, 整个过程只做一次sin, cos计算
+	 */
+	public void compute(){
+		int bitmapWidth = (int)(mBitmapWidth * mScale);
+		int bitmapHeight = (int)(mBitmapHeight * mScale);
+
+		double radian = degreeToRadian(mDegree);
+		float cos = (float) Math.cos(radian);
+		float sin = (float) Math.sin(radian);
+
+		computeRect(-mFramePadding, -mFramePadding, bitmapWidth + mFramePadding, bitmapHeight + mFramePadding, cos, sin);
+
+		//缩放 -> 绕着图片中心进行旋转 -> 平移到画该图片的起始点
+		float pivotX = bitmapWidth / 2;
+		float pivotY = bitmapHeight / 2;
+		float[] values = mMatrixValues;
+		values[0] = mScale * cos;
+		values[1] = -mScale * sin;
+		values[2] = pivotX - cos * pivotX + sin * pivotY + mOffsetX + mControlWidth / 2;
+		values[3] = mScale * sin;
+		values[4] = mScale * cos;
+		values[5] = pivotY - sin * pivotX - cos * pivotY + mOffsetY + mControlHeight / 2;
+		values[6] = 0;
+		values[7] = 0;
+		values[8] = 1;
+
+		//只有缩放和旋转，行列式为scale * scale
+		float det = mScale * mScale;
+		float[] inverse = mInverseValues;
+		if(det == 0){
+			inverse[0] = inverse[1] = inverse[2] = inverse[3] = inverse[4] = inverse[5] = 0;
+			return;
+		}
+		inverse[0] = values[4] / det;
+		inverse[1] = -values[1] / det;
+		inverse[2] = (values[1] * values[5] - values[4] * values[2]) / det;
+		inverse[3] = -values[3] / det;
+		inverse[4] = values[0] / det;
+		inverse[5] = (values[3] * values[2] - values[0] * values[5]) / det;
+	}
+
+
+	/**
+	 * 获取四个点和View的大小
+	 */
+	private void computeRect(int left, int top, int right, int bottom, float cos, float sin){
+		int centerX = (left + right) / 2;
+		int centerY = (top + bottom) / 2;
+
+		float[] corners = mCorners;
+		corners[0] = left;  corners[1] = top;
+		corners[2] = right; corners[3] = top;
+		corners[4] = right; corners[5] = bottom;
+		corners[6] = left;  corners[7] = bottom;
+
+		int maxCoordinateX = Integer.MIN_VALUE, minCoordinateX = Integer.MAX_VALUE;
+		int maxCoordinateY = Integer.MIN_VALUE, minCoordinateY = Integer.MAX_VALUE;
+
+		for(int i = 0; i < corners.length; i += 2){
+			float disX = corners[i] - centerX;
+			float disY = corners[i + 1] - centerY;
+			float x = Math.round(centerX + disX * cos - disY * sin);
+			float y = Math.round(centerY + disX * sin + disY * cos);
+			corners[i] = x;
+			corners[i + 1] = y;
+
+			//计算X, Y坐标最大的值和最小的值
+			maxCoordinateX = Math.max(maxCoordinateX, (int) x);
+			minCoordinateX = Math.min(minCoordinateX, (int) x);
+			maxCoordinateY = Math.max(maxCoordinateY, (int) y);
+			minCoordinateY = Math.min(minCoordinateY, (int) y);
+		}
+
+		mViewWidth = maxCoordinateX - minCoordinateX;
+		mViewHeight = maxCoordinateY - minCoordinateY;
+
+		//View中心点的坐标
+		int viewCenterX = (maxCoordinateX + minCoordinateX) / 2;
+		int viewCenterY = (maxCoordinateY + minCoordinateY) / 2;
+
+		mOffsetX = mViewWidth / 2 - viewCenterX;
+		mOffsetY = mViewHeight / 2 - viewCenterY;
+
+		//将四个点移动offset + 控制图标的一半
+		int dx = mOffsetX + mControlWidth / 2;
+		int dy = mOffsetY + mControlHeight / 2;
+		for(int i = 0; i < corners.length; i += 2){
+			corners[i] += dx;
+			corners[i + 1] += dy;
+		}
+	}
+
+
+	/**
+	 * 拖动，移动中心点
+	 * @param dx
+	 * @param dy
+	 */
+	public void drag(float dx, float dy){
+		mCenterX += dx;
+		mCenterY += dy;
+	}
+
+
+	/**
+	 * 拖动控制图标从(preX, preY)到(curX, curY)时计算新的缩放比例和旋转角度, 坐标相对于父布局而言.
+	 * 角度的变化由 center -> preMove 与 center -> curMove 两个向量的叉乘和点乘通过一次atan2得到，
+	 * 带符号而且在0°和180°附近也是稳定的
+	 */
+	public void rotateZoom(float preX, float preY, float curX, float curY){
+		float preDx = preX - mCenterX;
+		float preDy = preY - mCenterY;
+		float curDx = curX - mCenterX;
+		float curDy = curY - mCenterY;
+
+		//移动的点到图片中心的距离
+		float moveToCenterDistance = (float) Math.sqrt(curDx * curDx + curDy * curDy);
+
+		//计算缩放比例
+		if(mBitmapToCenterDistance > 0){
+			mRawScale = moveToCenterDistance / mBitmapToCenterDistance;
+		}
+
+		//两个点离中心太近时方向没有意义，只缩放不旋转
+		if(moveToCenterDistance >= MIN_ROTATE_RADIUS
+				&& preDx * preDx + preDy * preDy >= MIN_ROTATE_RADIUS * MIN_ROTATE_RADIUS){
+			float cross = preDx * curDy - preDy * curDx;
+			float dot = preDx * curDx + preDy * curDy;
+			mRawDegree += (float) radianToDegree(Math.atan2(cross, dot));
+		}
+
+		mDegree = mDegreeSnapper.apply(mRawDegree);
+
+		//缩放比例的界限判断
+		float scale = mScaleSnapper.apply(mRawScale);
+		if (scale <= mMinScale) {
+			scale = mMinScale;
+		} else if (scale >= mMaxScale) {
+			scale = mMaxScale;
+		}
+		mScale = scale;
+	}
+
+
+	/**
+	 * 判断点(x, y)是否点中控制图标，坐标相对于View而言
+	 */
+	public boolean hitControl(float x, float y){
+		int index = mControlLocation * 2;
+		float distanceToControl = distance(x, y, mCorners[index], mCorners[index + 1]);
+
+		//如果两者之间的距离小于 控制图标的宽度，高度的最小值，则认为点中了控制图标
+		return distanceToControl < Math.min(mControlWidth / 2, mControlHeight / 2);
+	}
+
+
+	/**
+	 * 把View中的点(x, y)映射到未缩放旋转的图片坐标中
+	 * @param out 长度至少为2，结果为(x, y)
+	 */
+	public void mapToBitmap(float x, float y, float[] out){
+		float[] inverse = mInverseValues;
+		out[0] = inverse[0] * x + inverse[1] * y + inverse[2];
+		out[1] = inverse[3] * x + inverse[4] * y + inverse[5];
+	}
+
+
+	/**
+	 * 旋转之后四个点的坐标(x0, y0, x1, y1...)，相对于View而言，顺序为左上，右上，右下，左下
+	 */
+	public float[] getCorners() {
+		return mCorners;
+	}
+
+	public float getControlX(){
+		return mCorners[mControlLocation * 2];
+	}
+
+	public float getControlY(){
+		return mCorners[mControlLocation * 2 + 1];
+	}
+
+	/**
+	 * 控制图标的位置(相对于View), 以控制点为中心
+	 * @param out 长度至少为4，结果为(left, top, right, bottom)
+	 */
+	public void getControlBounds(int[] out){
+		int x = (int) getControlX();
+		int y = (int) getControlY();
+		out[0] = x - mControlWidth / 2;
+		out[1] = y - mControlHeight / 2;
+		out[2] = x + mControlWidth / 2;
+		out[3] = y + mControlHeight / 2;
+	}
+
+	public float[] getMatrixValues() {
+		return mMatrixValues;
+	}
+
+	/**
+	 * View的实际宽和高，包括控制图标
+	 */
+	public int getLayoutWidth(){
+		return mViewWidth + mControlWidth;
+	}
+
+	public int getLayoutHeight(){
+		return mViewHeight + mControlHeight;
+	}
+
+	/**
+	 * View相对于父布局的左，上位置
+	 */
+	public int getLayoutLeft(){
+		return (int) (mCenterX - getLayoutWidth() / 2);
+	}
+
+	public int getLayoutTop(){
+		return (int) (mCenterY - getLayoutHeight() / 2);
+	}
+
+
+	/**
+	 * 把连续变化的值吸附到step的整数倍, 带滞后：进入吸附的范围是tolerance，离开吸附需要超过tolerance * SNAP_HYSTERESIS
+	 */
+	private static final class Snapper {
+		private float step;
+		private float tolerance;
+		private boolean snapped;
+		private float target;
+
+		private void set(float step, float tolerance){
+			this.step = step;
+			this.tolerance = tolerance;
+			reset();
+		}
+
+		private void reset(){
+			snapped = false;
+		}
+
+		private float apply(float raw){
+			if(step <= 0) return raw;
+
+			if(snapped){
+				if(Math.abs(raw - target) <= tolerance * SNAP_HYSTERESIS){
+					return target;
+				}
+				snapped = false;
+			}
+
+			float nearest = Math.round(raw / step) * step;
+			if(Math.abs(raw - nearest) <= tolerance){
+				snapped = true;
+				target = nearest;
+				return nearest;
+			}
+			return raw;
+		}
+	}
+
+
+	/**
+	 * 两个点之间的距离
+	 */
+	public static float distance(float x1, float y1, float x2, float y2) {
+		float disX = x2 - x1;
+		float disY = y2 - y1;
+		return (float) Math.sqrt(disX * disX + disY * disY);
+	}
+
+	/**
+	 * 弧度换算成角度
+	 */
+	public static double radianToDegree(double radian) {
+		return radian * 180 / Math.PI;
+	}
+
+	/**
+	 * 角度换算成弧度
+	 */
+	public static double degreeToRadian(double degree) {
+		return degree * Math.PI / 180;
+	}
+
+}
@@ -0,0 +1,216 @@
+package com.example.singletouchview;
+
+/**
+ * 手势结束之后的惯性滑动. 手势进行中记录最近的若干个状态样本，抬起时计算平移，旋转，缩放的速度，
+ * 之后按照固定的时间步长衰减速度并作用到TransformEngine上. 所有状态都是预先分配的基本类型数组，
+ * 每帧不分配对象，不依赖任何Android API
+ *
+ * @author xiaanming
+ *
+ */
+public class TransformFling {
+	/**
+	 * 固定的时间步长(毫秒)，与帧率无关，保证相同的速度得到相同的滑动距离
+	 */
+	public static final int STEP_MILLIS = 16;
+
+	/**
+	 * 一帧最多追赶的步数，避免卡顿之后一次走太远
+	 */
+	public static final int MAX_STEPS_PER_FRAME = 4;
+
+	/**
+	 * 计算速度时使用最近多少毫秒的样本，抬起之前停顿超过该时间则没有惯性
+	 */
+	public static final int VELOCITY_WINDOW_MILLIS = 100;
+
+	/**
+	 * 默认的摩擦系数，速度每秒衰减为 e^(-friction)
+	 */
+	public static final float DEFAULT_FRICTION = 4.0f;
+
+	/**
+	 * 速度低于这些值时停止，单位分别是 像素/秒，度/秒，比例/秒
+	 */
+	public static final float MIN_TRANSLATE_VELOCITY = 50f;
+	public static final float MIN_ROTATE_VELOCITY = 10f;
+	public static final float MIN_SCALE_VELOCITY = 0.05f;
+
+	private static final int SAMPLE_COUNT = 8;
+	private static final int SAMPLE_SIZE = 4;
+
+	/**
+	 * 环形的样本，每SAMPLE_SIZE个float为一个样本(centerX, centerY, degree, scale)
+	 */
+	private final float[] mSamples = new float[SAMPLE_COUNT * SAMPLE_SIZE];
+	private final long[] mSampleTimes = new long[SAMPLE_COUNT];
+	private int mSampleStart;
+	private int mSampleSize;
+
+	/**
+	 * 当前的速度
+	 */
+	private float mVelocityX, mVelocityY, mVelocityDegree, mVelocityScale;
+
+	/**
+	 * 每一步速度乘以的系数
+	 */
+	private float mStepDecay;
+
+	private boolean mRunning;
+	private long mLastFrameTime;
+	private long mAccumulatedMillis;
+
+
+	public TransformFling() {
+		setFriction(DEFAULT_FRICTION);
+	}
+
+
+	/**
+	 * 设置摩擦系数，越大停得越快
+	 * @param friction
+	 */
+	public void setFriction(float friction) {
+		mStepDecay = (float) Math.exp(-friction * STEP_MILLIS / 1000f);
+	}
+
+
+	/**
+	 * 清空样本，手势开始时调用
+	 */
+	public void resetSamples(){
+		mSampleStart = 0;
+		mSampleSize = 0;
+	}
+
+
+	/**
+	 * 记录手势进行中的一个状态
+	 * @param timeMillis 事件时间
+	 */
+	public void addSample(long timeMillis, TransformEngine engine){
+		int index;
+		if(mSampleSize < SAMPLE_COUNT){
+			index = (mSampleStart + mSampleSize) % SAMPLE_COUNT;
+			mSampleSize++;
+		}else{
+			index = mSampleStart;
+			mSampleStart = (mSampleStart + 1) % SAMPLE_COUNT;
+		}
+
+		int offset = index * SAMPLE_SIZE;
+		mSamples[offset] = engine.getCenterX();
+		mSamples[offset + 1] = engine.getCenterY();
+		mSamples[offset + 2] = engine.getDegree();
+		mSamples[offset + 3] = engine.getScale();
+		mSampleTimes[index] = timeMillis;
+	}
+
+
+	/**
+	 * 根据最近的样本计算速度并开始惯性滑动
+	 * @param timeMillis 抬起的时间
+	 * @return 速度太小没有开始返回false
+	 */
+	public boolean start(long timeMillis){
+		mRunning = false;
+		if(mSampleSize < 2) return false;
+
+		int last = (mSampleStart + mSampleSize - 1) % SAMPLE_COUNT;
+		long lastTime = mSampleTimes[last];
+		if(timeMillis - lastTime > VELOCITY_WINDOW_MILLIS) return false;
+
+		//窗口内最旧的样本
+		int first = last;
+		for(int i = mSampleSize - 2; i >= 0; i--){
+			int index = (mSampleStart + i) % SAMPLE_COUNT;
+			if(lastTime - mSampleTimes[index] > VELOCITY_WINDOW_MILLIS) break;
+			first = index;
+		}
+
+		float seconds = (lastTime - mSampleTimes[first]) / 1000f;
+		if(seconds <= 0) return false;
+
+		int lastOffset = last * SAMPLE_SIZE;
+		int firstOffset = first * SAMPLE_SIZE;
+		mVelocityX = (mSamples[lastOffset] - mSamples[firstOffset]) / seconds;
+		mVelocityY = (mSamples[lastOffset + 1] - mSamples[firstOffset + 1]) / seconds;
+		mVelocityDegree = (mSamples[lastOffset + 2] - mSamples[firstOffset + 2]) / seconds;
+		mVelocityScale = (mSamples[lastOffset + 3] - mSamples[firstOffset + 3]) / seconds;
+
+		mRunning = isMoving();
+		mLastFrameTime = timeMillis;
+		mAccumulatedMillis = 0;
+		return mRunning;
+	}
+
+
+	/**
+	 * 前进到frameTimeMillis，按固定步长把衰减之后的速度作用到engine上
+	 * @param engine
+	 * @param frameTimeMillis 当前帧的时间，与start()使用相同的时钟
+	 * @return 是否还在滑动
+	 */
+	public boolean step(TransformEngine engine, long frameTimeMillis){
+		if(!mRunning) return false;
+
+		mAccumulatedMillis += frameTimeMillis - mLastFrameTime;
+		mLastFrameTime = frameTimeMillis;
+		mAccumulatedMillis = Math.min(mAccumulatedMillis, STEP_MILLIS * MAX_STEPS_PER_FRAME);
+
+		float stepSeconds = STEP_MILLIS / 1000f;
+		while(mAccumulatedMillis >= STEP_MILLIS && mRunning){
+			mAccumulatedMillis -= STEP_MILLIS;
+
+			engine.drag(mVelocityX * stepSeconds, mVelocityY * stepSeconds);
+			if(mVelocityDegree != 0){
+				engine.setDegree(engine.getDegree() + mVelocityDegree * stepSeconds);
+			}
+			if(mVelocityScale != 0){
+				float scale = engine.getScale() + mVelocityScale * stepSeconds;
+				//到达缩放的界限之后不再缩放
+				if(scale <= engine.getMinScale() || scale >= engine.getMaxScale()){
+					scale = Math.max(engine.getMinScale(), Math.min(engine.getMaxScale(), scale));
+					mVelocityScale = 0;
+				}
+				engine.setScale(scale);
+			}
+
+			mVelocityX *= mStepDecay;
+			mVelocityY *= mStepDecay;
+			mVelocityDegree *= mStepDecay;
+			mVelocityScale *= mStepDecay;
+			mRunning = isMoving();
+		}
+		return mRunning;
+	}
+
+
+	private boolean isMoving(){
+		if(Math.abs(mVelocityDegree) < MIN_ROTATE_VELOCITY) mVelocityDegree = 0;
+		if(Math.abs(mVelocityScale) < MIN_SCALE_VELOCITY) mVelocityScale = 0;
+		if(mVelocityX * mVelocityX + mVelocityY * mVelocityY < MIN_TRANSLATE_VELOCITY * MIN_TRANSLATE_VELOCITY){
+			mVelocityX = 0;
+			mVelocityY = 0;
+		}
+		return mVelocityX != 0 || mVelocityY != 0 || mVelocityDegree != 0 || mVelocityScale != 0;
+	}
+
+
+	/**
+	 * 当前的滑动是否包含旋转或者缩放，只有平移时不需要重新计算Matrix
+	 */
+	public boolean isRotateZoom(){
+		return mVelocityDegree != 0 || mVelocityScale != 0;
+	}
+
+	public boolean isRunning(){
+		return mRunning;
+	}
+
+	public void stop(){
+		mRunning = false;
+	}
+
+}
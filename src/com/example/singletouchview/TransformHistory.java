@@ -0,0 +1,156 @@
+package com.example.singletouchview;
+
+/**
+ * 变换状态的撤销，重做记录. 每个状态只有中心点，旋转角度，缩放比例四个float，
+ * 保存在固定容量的环形float数组中，超过容量时覆盖最旧的状态，内存占用不随编辑次数增长.
+ * 不依赖任何Android API
+ *
+ * @author xiaanming
+ *
+ */
+public class TransformHistory {
+	/**
+	 * 每个状态占用的float数
+	 */
+	private static final int STATE_SIZE = 4;
+
+	private final int mCapacity;
+
+	/**
+	 * 环形数组，每STATE_SIZE个float为一个状态(centerX, centerY, degree, scale)
+	 */
+	private final float[] mStates;
+
+	/**
+	 * 最旧的状态在环中的位置，以及当前保存的状态数
+	 */
+	private int mStart;
+	private int mSize;
+
+	/**
+	 * 当前状态的序号(从最旧的状态算起)，没有状态时为-1
+	 */
+	private int mCursor = -1;
+
+
+	/**
+	 * @param capacity 最多保存的状态数，至少为2
+	 */
+	public TransformHistory(int capacity) {
+		mCapacity = Math.max(2, capacity);
+		mStates = new float[mCapacity * STATE_SIZE];
+	}
+
+
+	/**
+	 * 记录一个新的状态作为当前状态，丢弃可以重做的状态. 与当前状态相同时不记录
+	 */
+	public void push(float centerX, float centerY, float degree, float scale){
+		if(mCursor >= 0 && isCurrent(centerX, centerY, degree, scale)){
+			return;
+		}
+
+		mSize = mCursor + 1;
+		if(mSize == mCapacity){
+			mStart = (mStart + 1) % mCapacity;
+			mSize--;
+		}
+
+		int offset = offsetOf(mSize);
+		mStates[offset] = centerX;
+		mStates[offset + 1] = centerY;
+		mStates[offset + 2] = degree;
+		mStates[offset + 3] = scale;
+
+		mSize++;
+		mCursor = mSize - 1;
+	}
+
+
+	/**
+	 * 记录当前engine的状态
+	 * @param engine
+	 */
+	public void push(TransformEngine engine){
+		push(engine.getCenterX(), engine.getCenterY(), engine.getDegree(), engine.getScale());
+	}
+
+
+	/**
+	 * 当前状态是否与给定的值相同
+	 */
+	public boolean isCurrent(float centerX, float centerY, float degree, float scale){
+		if(mCursor < 0) return false;
+		int offset = offsetOf(mCursor);
+		return mStates[offset] == centerX && mStates[offset + 1] == centerY
+				&& mStates[offset + 2] == degree && mStates[offset + 3] == scale;
+	}
+
+
+	public boolean canUndo(){
+		return mCursor > 0;
+	}
+
+	public boolean canRedo(){
+		return mCursor >= 0 && mCursor < mSize - 1;
+	}
+
+
+	/**
+	 * 回到上一个状态并设置给engine
+	 * @param engine
+	 * @return 没有可以撤销的状态返回false
+	 */
+	public boolean undo(TransformEngine engine){
+		if(!canUndo()) return false;
+		mCursor--;
+		apply(engine);
+		return true;
+	}
+
+
+	/**
+	 * 前进到下一个状态并设置给engine
+	 * @param engine
+	 * @return 没有可以重做的状态返回false
+	 */
+	public boolean redo(TransformEngine engine){
+		if(!canRedo()) return false;
+		mCursor++;
+		apply(engine);
+		return true;
+	}
+
+
+	private void apply(TransformEngine engine){
+		int offset = offsetOf(mCursor);
+		engine.setCenter(mStates[offset], mStates[offset + 1]);
+		engine.setDegree(mStates[offset + 2]);
+		engine.setScale(mStates[offset + 3]);
+	}
+
+
+	/**
+	 * 第index个状态在数组中的起始位置
+	 */
+	private int offsetOf(int index){
+		return ((mStart + index) % mCapacity) * STATE_SIZE;
+	}
+
+
+	public int size(){
+		return mSize;
+	}
+
+	public int capacity(){
+		return mCapacity;
+	}
+
+
+	public void clear(){
+		mStart = 0;
+		mSize = 0;
+		mCursor = -1;
+	}
+
+}